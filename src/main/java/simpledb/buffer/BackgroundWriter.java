@@ -0,0 +1,86 @@
+package simpledb.buffer;
+
+/**
+ * A background thread that writes dirty unpinned buffers to disk,
+ * so that a transaction needing a buffer seldom has to write
+ * the previous contents of the one it gets.
+ * The writer wakes up periodically, and also whenever a pin
+ * replaces a dirty buffer. When the fraction of dirty buffers
+ * in the pool is above the high threshold, or it was woken
+ * by such a pin, it cleans each partition until
+ * the fraction is at most the low threshold.
+ * <P>
+ * Each buffer is written as its partition would write it:
+ * the log is flushed up to the buffer's LSN first.
+ * The files written are not forced; a transaction forces
+ * them when it commits.
+ */
+class BackgroundWriter implements Runnable {
+   private static final long INTERVAL = 200; // milliseconds
+
+   private BufferPartition[] partitions;
+   private double low, high;
+   private boolean wakeup = false;
+   private volatile boolean stopped = false;
+
+   /**
+    * Creates a writer for the specified partitions
+    * and starts its thread.
+    * @param partitions the partitions of the pool
+    * @param low the fraction of dirty buffers to clean down to
+    * @param high the fraction of dirty buffers that starts a cleaning
+    */
+   BackgroundWriter(BufferPartition[] partitions, double low, double high) {
+      this.partitions = partitions;
+      this.low = low;
+      this.high = high;
+      Thread t = new Thread(this, "simpledb-writer");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   /**
+    * Asks the writer to clean the pool now.
+    * It is called by a pin that had to write a dirty buffer.
+    */
+   synchronized void wakeUp() {
+      wakeup = true;
+      notify();
+   }
+
+   /**
+    * Stops the writer's thread after its current cleaning.
+    */
+   synchronized void stop() {
+      stopped = true;
+      notify();
+   }
+
+   public void run() {
+      try {
+         while (!stopped) {
+            boolean urgent;
+            synchronized (this) {
+               if (!wakeup)
+                  wait(INTERVAL);
+               urgent = wakeup;
+               wakeup = false;
+            }
+            if (!stopped && (urgent || dirtyRatio() > high))
+               for (BufferPartition p : partitions)
+                  p.cleanDirty((int) (low * p.size()));
+         }
+      }
+      catch (InterruptedException e) {
+      }
+   }
+
+   private double dirtyRatio() {
+      int dirty = 0, size = 0;
+      for (BufferPartition p : partitions) {
+         dirty += p.dirtyCount();
+         size += p.size();
+      }
+      return (double) dirty / size;
+   }
+}
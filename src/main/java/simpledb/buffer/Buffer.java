@@ -1,5 +1,6 @@
 package simpledb.buffer;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 
@@ -17,9 +18,15 @@ public class Buffer {
    private LogMgr lm;
    private Page contents;
    private BlockId blk = null;
-   private int pins = 0;
+   private AtomicInteger pins = new AtomicInteger();
    private int txnum = -1;
-   private int lsn = -1;
+   private long lsn = -1;
+   private boolean loading = false;
+   private boolean readAhead = false;
+   private BlockId replaced = null;  // the dirty block to write before loading
+   private long replacedLsn = -1;
+   BufferPartition partition;  // the partition of the pool that owns the buffer
+   long lastPin = 0;           // when the partition last pinned the buffer, by its own clock
 
    public Buffer(FileMgr fm, LogMgr lm) {
       this.fm = fm;
@@ -40,7 +47,16 @@ public class Buffer {
       return blk;
    }
 
-   public void setModified(int txnum, int lsn) {
+   /**
+    * Records that the buffer has been modified by the
+    * specified transaction, so that its partition
+    * can find it when the transaction commits.
+    * @param txnum the id of the modifying transaction
+    * @param lsn the LSN of the modification's log record
+    */
+   public void setModified(int txnum, long lsn) {
+      if (txnum != this.txnum && partition != null)
+         partition.modified(this, txnum);
       this.txnum = txnum;
       this.lsn = lsn;
    }
@@ -51,7 +67,7 @@ public class Buffer {
     * @return true if the buffer is pinned
     */
    public boolean isPinned() {
-      return pins > 0;
+      return pins.get() > 0;
    }
    
    public int modifyingTx() {
@@ -59,17 +75,118 @@ public class Buffer {
    }
 
    /**
-    * Reads the contents of the specified block into
-    * the contents of the buffer.
+    * Returns the LSN of the log record for the most
+    * recent modification of the buffer.
+    * @return the LSN
+    */
+   long modifyingLsn() {
+      return lsn;
+   }
+
+   /**
+    * Marks the buffer as clean and returns a copy of its contents.
+    * This method is used by the background writer and by commits,
+    * which write the copy to the buffer's block without holding the lock,
+    * after flushing the log up to the buffer's LSN.
+    * The buffer must be unpinned, or pinned only by the
+    * committing transaction, so that its contents
+    * are not being changed.
+    * @return a copy of the buffer's contents
+    */
+   Page cleanCopy() {
+      txnum = -1;
+      return new Page(contents.readBytes(0, fm.blockSize()));
+   }
+
+   /**
+    * Assigns the buffer to the specified block,
+    * but leaves the reading of the block to a later
+    * call to {@link #load()}.
+    * Until then the buffer is in the loading state,
+    * and its contents must not be used.
     * If the buffer was dirty, then its previous contents
-    * are first written to disk.
+    * are written to their block by {@link #flushReplaced()},
+    * before the new block is read.
     * @param b a reference to the data block
     */
-   void assignToBlock(BlockId b) {
-      flush();
+   void assignToBlockLater(BlockId b) {
+      if (txnum >= 0) {
+         replaced = blk;
+         replacedLsn = lsn;
+         txnum = -1;
+      }
       blk = b;
+      pins.set(0);
+      loading = true;
+      readAhead = false;
+   }
+
+   /**
+    * Reads the block assigned by {@link #assignToBlockLater(BlockId)}.
+    * This method is called without holding the buffer manager's lock,
+    * which is safe because a loading buffer is pinned
+    * and cannot be pinned by anyone else.
+    */
+   void load() {
+      flushReplaced();
       fm.read(blk, contents);
-      pins = 0;
+   }
+
+   /**
+    * Writes the previous contents of a loading buffer
+    * to the dirty block it replaced, if any,
+    * after flushing the log up to their LSN.
+    * Like {@link #load()}, it is called without holding the lock.
+    */
+   void flushReplaced() {
+      if (replaced != null) {
+         lm.flush(replacedLsn);
+         fm.write(replaced, contents);
+      }
+   }
+
+   /**
+    * Returns the dirty block that the loading buffer replaced,
+    * or null if the replaced block was clean.
+    * @return the replaced block, or null
+    */
+   BlockId replacedBlock() {
+      return replaced;
+   }
+
+   /**
+    * Ends the loading state.
+    * If the load failed, the buffer is no longer
+    * assigned to any block.
+    * @param ok true if the block was read successfully
+    */
+   void loadFinished(boolean ok) {
+      loading = false;
+      replaced = null;
+      if (!ok)
+         blk = null;
+   }
+
+   /**
+    * Marks the buffer as holding a block that was read ahead.
+    * The mark is cleared when the buffer is next pinned.
+    */
+   void markReadAhead() {
+      readAhead = true;
+   }
+
+   boolean isLoading() {
+      return loading;
+   }
+
+   /**
+    * Returns true if the buffer's block was read ahead
+    * and has not been pinned since.
+    * Pinning the buffer clears this flag.
+    * @return true if the buffer holds an unused read-ahead block
+    */
+   boolean isReadAhead() {
+      return readAhead;
    }
    
    /**
@@ -83,17 +200,50 @@ public class Buffer {
       }
    }
 
+   /**
+    * Drops any modifications to the buffer without writing them.
+    * If the buffer is unpinned, it is also unassigned from its block.
+    * This method is used when the buffer's file is being deleted.
+    */
+   void discard() {
+      txnum = -1;
+      if (pins.get() == 0) {
+         blk = null;
+         readAhead = false;
+      }
+   }
+
    /**
     * Increase the buffer's pin count.
     */
    void pin() {
-      pins++;
+      pins.incrementAndGet();
+      if (!loading)
+         readAhead = false;
    }
 
    /**
     * Decrease the buffer's pin count.
     */
    void unpin() {
-      pins--;
+      pins.decrementAndGet();
+   }
+
+   /**
+    * Decreases the buffer's pin count, unless that would
+    * leave the buffer unpinned.
+    * Since the count stays positive, the buffer manager
+    * need not be told, and so this method is called
+    * without holding its lock.
+    * @return true if the pin count was decreased
+    */
+   boolean unpinIfShared() {
+      while (true) {
+         int n = pins.get();
+         if (n <= 1)
+            return false;
+         if (pins.compareAndSet(n, n-1))
+            return true;
+      }
    }
 }
\ No newline at end of file
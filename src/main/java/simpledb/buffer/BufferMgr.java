@@ -1,129 +1,747 @@
 package simpledb.buffer;
 
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * The pool is divided into partitions, and each block
+ * belongs to the partition chosen by the hash of its id.
+ * Each partition has its own lock, so threads pinning
+ * different blocks mostly do not contend;
+ * a small pool has a single partition.
+ * Within a partition, the buffer holding a block is found
+ * through a hash table, and the unpinned buffers are kept
+ * in a free list and a replacement policy,
+ * so pinning and unpinning take constant time
+ * however large the pool is.
+ * A buffer that holds no block is reused first;
+ * otherwise the buffer to replace is chosen by a
+ * {@link ReplacementPolicy}, which is LRU unless another
+ * policy is set; see {@link #setReplacementPolicy(String)}.
+ * A large scan can confine itself to a small {@link BufferRing}.
+ * The buffer manager can also read ahead of sequential scans,
+ * and write dirty buffers in the background;
+ * see {@link #setReadAhead(int)} and
+ * {@link #setBackgroundWriter(double, double)}.
+ * A pin that finds no unpinned buffer waits in its partition's
+ * FIFO queue, so the buffers are handed out in the order
+ * they were asked for; see {@link #setPinTimeout(long)}.
+ * The pool can be resized while the server is running;
+ * see {@link #resize(int)}.
+ * The list of blocks in the pool can be saved at shutdown
+ * and read back after a restart, so that the server does
+ * not start cold; see {@link #warmUp(File)}.
+ * <P>
+ * Besides the default pool, the buffer manager can have
+ * named pools, each with its own size and partitions,
+ * which hold the blocks of the files matching their patterns;
+ * see {@link #addPool(String, int, String...)}.
+ * A small pool for the catalog tables, for instance,
+ * keeps them resident however much the scans and sorts
+ * in the default pool replace.
  * @author Edward Sciore
  *
  */
 public class BufferMgr {
-   private Buffer[] bufferpool;
-   private int numAvailable;
-   private static final long MAX_TIME = 10000; // 10 seconds
+   private static final int MIN_PARTITION_SIZE = 256;
+   private static final int MAX_PARTITIONS = 64;
+
+   private FileMgr fm;
+   private LogMgr lm;
+   private Pool defaultPool;
+   private volatile List<Pool> namedPools = new ArrayList<>();
+   private Map<String,Pool> poolOfFile = new ConcurrentHashMap<>();
+   private volatile BufferPartition[] partitions; // of all the pools
+   private volatile ReadAhead readAhead = null;
+   private BackgroundWriter writer = null;
+   private double writerLow, writerHigh;
+   private String policyName = "lru";
+   private long pinTimeout = 10000;
+
+   /**
+    * A pool of buffers: the default pool, or a named pool
+    * holding the blocks of the files that match its patterns.
+    * A pattern is a file name in which '*' stands for
+    * any sequence of characters.
+    */
+   private static class Pool {
+      String name;
+      int numbuffs;
+      BufferPartition[] partitions;
+      List<Pattern> patterns = new ArrayList<>();
+
+      Pool(String name, int numbuffs, BufferPartition[] partitions, String[] patterns) {
+         this.name = name;
+         this.numbuffs = numbuffs;
+         this.partitions = partitions;
+         for (String p : patterns)
+            this.patterns.add(Pattern.compile(Pattern.quote(p).replace("*", "\\E.*\\Q")));
+      }
+
+      boolean matches(String filename) {
+         for (Pattern p : patterns)
+            if (p.matcher(filename).matches())
+               return true;
+         return false;
+      }
+   }
    
    /**
     * Creates a buffer manager having the specified number 
     * of buffer slots.
+    * The pool is partitioned according to its size
+    * and the number of processors.
     * This constructor depends on a {@link FileMgr} and
     * {@link LogMgr LogMgr} object.
     * @param numbuffs the number of buffer slots to allocate
     */
    public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs) {
-      bufferpool = new Buffer[numbuffs];
-      numAvailable = numbuffs;
-      for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer(fm, lm);
+      this(fm, lm, numbuffs, defaultPartitions(numbuffs));
+   }
+
+   /**
+    * Creates a buffer manager having the specified number
+    * of buffer slots, divided evenly into the specified
+    * number of partitions.
+    * @param numbuffs the number of buffer slots to allocate
+    * @param numpartitions the number of partitions
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, int numpartitions) {
+      this.fm = fm;
+      this.lm = lm;
+      defaultPool = new Pool(null, numbuffs, newPartitions(numbuffs, numpartitions), new String[0]);
+      partitions = defaultPool.partitions;
+   }
+
+   private BufferPartition[] newPartitions(int numbuffs, int numpartitions) {
+      numpartitions = Math.max(1, Math.min(numpartitions, numbuffs));
+      BufferPartition[] parts = new BufferPartition[numpartitions];
+      for (int i=0; i<numpartitions; i++)
+         parts[i] = new BufferPartition(fm, lm, partitionSize(numbuffs, numpartitions, i), numpartitions);
+      return parts;
+   }
+
+   private static int partitionSize(int numbuffs, int numpartitions, int i) {
+      return numbuffs / numpartitions + (i < numbuffs % numpartitions ? 1 : 0);
+   }
+
+   /**
+    * Returns the number of partitions for a pool of the
+    * specified size: a power of two, large enough to spread
+    * the processors' pins, but leaving each partition
+    * enough buffers that a transaction does not exhaust one.
+    */
+   private static int defaultPartitions(int numbuffs) {
+      int wanted = Math.min(4 * Runtime.getRuntime().availableProcessors(), MAX_PARTITIONS);
+      int n = 1;
+      while (2*n <= wanted && numbuffs / (2*n) >= MIN_PARTITION_SIZE)
+         n *= 2;
+      return n;
+   }
+
+   /**
+    * Returns the number of partitions of the pool,
+    * counting those of the named pools.
+    * @return the number of partitions
+    */
+   public int partitions() {
+      return partitions.length;
    }
    
+   /**
+    * Enables read-ahead for sequential scans.
+    * When a transaction pins consecutive blocks of a file,
+    * a background thread reads the following blocks
+    * into unpinned buffers.
+    * The window is limited to a quarter of the default pool,
+    * and a value of 0 disables read-ahead.
+    * The thread of the previous read-ahead, if any, is stopped.
+    * @param window the number of blocks to read ahead of a scan
+    */
+   public synchronized void setReadAhead(int window) {
+      window = Math.min(window, defaultPool.numbuffs / 4);
+      if (readAhead != null)
+         readAhead.stop();
+      readAhead = (window > 0) ? new ReadAhead(this, fm, window) : null;
+   }
+
+   /**
+    * Starts a background thread that writes dirty unpinned
+    * buffers to disk, so that pins seldom have to write
+    * the buffer they replace.
+    * The writer cleans the pool when the fraction of dirty
+    * buffers rises above the high threshold,
+    * or when a pin has had to write a dirty buffer,
+    * and stops when the fraction is at most the low threshold.
+    * A high threshold of 0 stops the writer.
+    * @param low the fraction of dirty buffers to clean down to
+    * @param high the fraction of dirty buffers that starts a cleaning
+    */
+   public synchronized void setBackgroundWriter(double low, double high) {
+      writerLow = low;
+      writerHigh = high;
+      if (writer != null)
+         writer.stop();
+      writer = (high > 0) ? new BackgroundWriter(partitions, low, high) : null;
+      for (BufferPartition p : partitions)
+         p.setWriter(writer);
+   }
+
+   /**
+    * Sets the policy that chooses the buffer to replace.
+    * Each partition gets its own instance of the policy.
+    * The buffers that already hold a block are handed to the
+    * new policies, as if their blocks had just been read.
+    * @param name the name of the policy; see {@link ReplacementPolicy#create(String, int)}
+    */
+   public synchronized void setReplacementPolicy(String name) {
+      for (BufferPartition p : partitions)
+         p.setReplacementPolicy(ReplacementPolicy.create(name, p.size()));
+      policyName = name;
+   }
+
+   /**
+    * Returns the number of buffers in the pool,
+    * counting those of the named pools.
+    * @return the size of the pool
+    */
+   public synchronized int size() {
+      int n = defaultPool.numbuffs;
+      for (Pool pool : namedPools)
+         n += pool.numbuffs;
+      return n;
+   }
+
+   /**
+    * Adds a named pool of the specified size, which will hold
+    * the blocks of the files matching any of the patterns;
+    * in a pattern, '*' stands for any sequence of characters.
+    * A file that matches the patterns of several named pools
+    * belongs to the first one added.
+    * The pool gets the replacement policy, pin timeout and
+    * background writing of the rest of the pool.
+    * The pool should be added before its files are used:
+    * it is an error if a block of those files is already in a pool.
+    * @param name the name of the pool
+    * @param numbuffs the number of buffers of the pool
+    * @param patterns the patterns of the names of the pool's files
+    */
+   public synchronized void addPool(String name, int numbuffs, String... patterns) {
+      if (findPool(name) != null)
+         throw new IllegalArgumentException("buffer pool " + name + " already exists");
+      Pool pool = new Pool(name, numbuffs,
+                           newPartitions(numbuffs, defaultPartitions(numbuffs)), patterns);
+      for (BufferPartition p : partitions)
+         for (BlockId blk : p.residentBlocks())
+            if (pool.matches(blk.fileName()) && poolOf(blk.fileName()) != pool)
+               throw new RuntimeException("blocks of " + blk.fileName()
+                                          + " are already in the buffer pool");
+      for (BufferPartition p : pool.partitions) {
+         p.setReplacementPolicy(ReplacementPolicy.create(policyName, p.size()));
+         p.setPinTimeout(pinTimeout);
+      }
+      List<Pool> pools = new ArrayList<>(namedPools);
+      pools.add(pool);
+      List<BufferPartition> parts = new ArrayList<>(Arrays.asList(partitions));
+      parts.addAll(Arrays.asList(pool.partitions));
+      namedPools = pools;
+      poolOfFile.clear();
+      partitions = parts.toArray(new BufferPartition[0]);
+      if (writer != null)
+         setBackgroundWriter(writerLow, writerHigh);
+   }
+
+   /**
+    * Returns the names of the named pools, in the order they were added.
+    * @return the names of the pools
+    */
+   public synchronized List<String> poolNames() {
+      List<String> names = new ArrayList<>();
+      for (Pool pool : namedPools)
+         names.add(pool.name);
+      return names;
+   }
+
+   /**
+    * Returns the number of buffers of the specified named pool.
+    * @param name the name of the pool
+    * @return the size of the pool
+    */
+   public synchronized int size(String name) {
+      return namedPool(name).numbuffs;
+   }
+
+   /**
+    * Changes the number of buffers in the default pool, without
+    * stopping the transactions that are using it.
+    * The new size is divided among the partitions as
+    * the constructor divides it; the number of partitions
+    * does not change.
+    * Growing the pool adds empty buffers.
+    * Shrinking it drains each partition: unpinned buffers
+    * are taken out at once, after writing them if they are dirty,
+    * and pinned buffers are taken out when they are unpinned.
+    * Each partition gets a new instance of the replacement
+    * policy, created for its new size.
+    * The read-ahead window is not changed.
+    * @param numbuffs the new number of buffers
+    */
+   public synchronized void resize(int numbuffs) {
+      resize(defaultPool, numbuffs);
+   }
+
+   /**
+    * Changes the number of buffers of the specified named pool,
+    * as {@link #resize(int)} changes the default pool.
+    * @param name the name of the pool
+    * @param numbuffs the new number of buffers
+    */
+   public synchronized void resize(String name, int numbuffs) {
+      resize(namedPool(name), numbuffs);
+   }
+
+   private void resize(Pool pool, int numbuffs) {
+      BufferPartition[] parts = pool.partitions;
+      if (numbuffs < parts.length)
+         throw new IllegalArgumentException("the pool needs at least "
+                                            + parts.length + " buffers");
+      for (int i=0; i<parts.length; i++) {
+         int size = partitionSize(numbuffs, parts.length, i);
+         parts[i].resize(size, ReplacementPolicy.create(policyName, size));
+      }
+      pool.numbuffs = numbuffs;
+   }
+
+   private Pool findPool(String name) {
+      for (Pool pool : namedPools)
+         if (pool.name.equals(name))
+            return pool;
+      return null;
+   }
+
+   private Pool namedPool(String name) {
+      Pool pool = findPool(name);
+      if (pool == null)
+         throw new IllegalArgumentException("unknown buffer pool " + name);
+      return pool;
+   }
+
+   /**
+    * Sets how long a pin waits for a buffer before
+    * throwing a {@link BufferAbortException}.
+    * @param millis the timeout in milliseconds
+    */
+   public synchronized void setPinTimeout(long millis) {
+      pinTimeout = millis;
+      for (BufferPartition p : partitions)
+         p.setPinTimeout(millis);
+   }
+
+   /**
+    * Returns the number of pins that had to wait, either for
+    * an unpinned buffer or for their block to be read or written.
+    * @return the number of pins that waited
+    */
+   public long pinWaits() {
+      return waitStat(0);
+   }
+
+   /**
+    * Returns the total time spent by pins waiting.
+    * @return the total wait time in nanoseconds
+    */
+   public long pinWaitNanos() {
+      return waitStat(1);
+   }
+
+   /**
+    * Returns the longest time a pin has waited.
+    * @return the longest wait time in nanoseconds
+    */
+   public long maxPinWaitNanos() {
+      long max = 0;
+      for (BufferPartition p : partitions)
+         max = Math.max(max, p.waitStats()[2]);
+      return max;
+   }
+
+   /**
+    * Returns the number of pins that gave up waiting
+    * and threw a {@link BufferAbortException}.
+    * @return the number of timeouts
+    */
+   public long pinTimeouts() {
+      return waitStat(3);
+   }
+
+   private long waitStat(int i) {
+      long n = 0;
+      for (BufferPartition p : partitions)
+         n += p.waitStats()[i];
+      return n;
+   }
+
+   /**
+    * Returns the number of pins that found their block
+    * already in the pool.
+    * Blocks read ahead are counted when they are first pinned.
+    * @return the number of hits
+    */
+   public int hits() {
+      int n = 0;
+      for (BufferPartition p : partitions)
+         n += p.hits();
+      return n;
+   }
+
+   /**
+    * Returns the number of pins that had to read their block.
+    * @return the number of misses
+    */
+   public int misses() {
+      int n = 0;
+      for (BufferPartition p : partitions)
+         n += p.misses();
+      return n;
+   }
+
+   /**
+    * Returns the fraction of pins that found their block
+    * already in the pool.
+    * @return the hit ratio, or 0 if nothing has been pinned
+    */
+   public double hitRatio() {
+      int hits = hits();
+      int pins = hits + misses();
+      return (pins == 0) ? 0 : (double) hits / pins;
+   }
+
+   /**
+    * Resets the hit and miss counts.
+    */
+   public void resetHitCounts() {
+      for (BufferPartition p : partitions)
+         p.resetHitCounts();
+   }
+
+   /**
+    * Returns the number of pins that found their block
+    * already read ahead.
+    * @return the number of read-ahead hits
+    */
+   public int readAheadHits() {
+      int n = 0;
+      for (BufferPartition p : partitions)
+         n += p.readAheadHits();
+      return n;
+   }
+
+   /**
+    * Returns the number of pins that continued a sequential
+    * scan but still had to read their block.
+    * @return the number of read-ahead misses
+    */
+   public int readAheadMisses() {
+      int n = 0;
+      for (BufferPartition p : partitions)
+         n += p.readAheadMisses();
+      return n;
+   }
+
    /**
     * Returns the number of available (i.e. unpinned) buffers.
     * @return the number of available buffers
     */
-   public synchronized int available() {
-      return numAvailable;
+   public int available() {
+      int n = 0;
+      for (BufferPartition p : partitions)
+         n += p.available();
+      return n;
    }
    
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Flushes the dirty buffers modified by the specified transaction,
+    * and then forces the written files to disk.
+    * The files are forced even if the transaction has no dirty
+    * buffers left, because buffers that were flushed
+    * when they were replaced, or by the background writer,
+    * have not been forced.
+    * Each partition keeps the set of buffers modified by
+    * each transaction, so only those buffers are visited.
     * @param txnum the transaction's id number
     */
-   public synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
-         if (buff.modifyingTx() == txnum)
-         buff.flush();
+   public void flushAll(int txnum) {
+      for (BufferPartition p : partitions)
+         p.flushAll(txnum);
+      fm.forceAll();
+   }
+
+
+   /**
+    * Discards the buffers holding blocks of the specified file,
+    * without writing them to disk.
+    * It is called before a temporary file is deleted, so
+    * that its dirty blocks are neither flushed at commit
+    * nor written back when their buffers are replaced.
+    * Buffers that are being read ahead are left alone;
+    * they are not dirty.
+    * @param filename the name of the file
+    */
+   public void discardBlocks(String filename) {
+      for (BufferPartition p : partitions)
+         p.discardBlocks(filename);
+      poolOfFile.remove(filename);
    }
-   
    
    /**
     * Unpins the specified data buffer. If its pin count
-    * goes to zero, then notify any waiting threads.
+    * goes to zero, then the longest waiter of its partition is woken.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      buff.unpin();
-      if (!buff.isPinned()) {
-         numAvailable++;
-         notifyAll();
-      }
+   public void unpin(Buffer buff) {
+      buff.partition.unpin(buff);
    }
    
    /**
     * Pins a buffer to the specified block, potentially
-    * waiting until a buffer becomes available.
-    * If no buffer becomes available within a fixed 
-    * time period, then a {@link BufferAbortException} is thrown.
+    * waiting until a buffer of the block's partition becomes available.
+    * Waiting pins get the freed buffers in FIFO order.
+    * If no buffer becomes available within the pin timeout,
+    * then a {@link BufferAbortException} is thrown.
+    * @see #setPinTimeout(long)
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(BlockId blk) {
+   public Buffer pin(BlockId blk) {
+      return pin(blk, null);
+   }  
+
+   /**
+    * Pins a buffer to the specified block on behalf of a scan
+    * that has a ring of buffers.
+    * If the block is not in the pool, it is read into a buffer
+    * of the ring rather than one chosen by the replacement policy.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring, or null to use the whole pool
+    * @return the buffer pinned to that block
+    * @see #pin(BlockId)
+    */
+   public Buffer pin(BlockId blk, BufferRing ring) {
+      return partition(blk).pin(blk, (ring == null) ? readAhead : null, ring);
+   }
+   
+   /**
+    * Pins buffers to a range of consecutive blocks of a file.
+    * The blocks that are not already in the pool are read
+    * with one scatter read per contiguous run,
+    * instead of one read per block.
+    * The reads are done without holding any lock;
+    * the buffers being read are pinned and in the loading state,
+    * so other pins of those blocks wait for them.
+    * A block whose buffer is being loaded by another thread,
+    * or that finds no unpinned buffer, is pinned
+    * individually afterwards, as by {@link #pin(BlockId)}.
+    * @param first a reference to the first block of the range
+    * @param count the number of blocks in the range
+    * @return the pinned buffers, in block order
+    */
+   public Buffer[] pinRange(BlockId first, int count) {
+      return pinRange(first, count, null);
+   }
+
+   /**
+    * Pins buffers to a range of consecutive blocks of a file
+    * on behalf of a scan that has a ring of buffers.
+    * @param first a reference to the first block of the range
+    * @param count the number of blocks in the range
+    * @param ring the scan's ring, or null to use the whole pool
+    * @return the pinned buffers, in block order
+    * @see #pinRange(BlockId, int)
+    */
+   public Buffer[] pinRange(BlockId first, int count, BufferRing ring) {
+      String filename = first.fileName();
+      Buffer[] buffs = new Buffer[count];
+      boolean[] missing = new boolean[count];
+      for (int i=0; i<count; i++) {
+         BlockId blk = new BlockId(filename, first.number()+i);
+         buffs[i] = partition(blk).pinLater(blk, ring);
+         missing[i] = buffs[i] != null && buffs[i].isLoading();
+      }
+      boolean ok = false;
       try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = tryToPin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = tryToPin(blk);
-         }
-         if (buff == null)
-            throw new BufferAbortException();
-         return buff;
+         loadRuns(first, buffs, missing);
+         ok = true;
       }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
+      finally {
+         for (int i=0; i<count; i++)
+            if (missing[i])
+               buffs[i].partition.finishLoad(buffs[i], ok);
+         if (!ok)
+            for (Buffer buff : buffs)
+               if (buff != null)
+                  unpin(buff);
       }
-   }  
-   
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+      for (int i=0; i<count; i++)
+         if (buffs[i] == null)
+            buffs[i] = pin(new BlockId(filename, first.number()+i), ring);
+      return buffs;
    }
-   
+
+   private void loadRuns(BlockId first, Buffer[] buffs, boolean[] missing) {
+      int i = 0;
+      while (i < buffs.length) {
+         if (!missing[i]) {
+            i++;
+            continue;
+         }
+         int start = i;
+         while (i < buffs.length && missing[i])
+            i++;
+         Page[] pages = new Page[i - start];
+         for (int j=start; j<i; j++) {
+            buffs[j].flushReplaced();
+            pages[j-start] = buffs[j].contents();
+         }
+         fm.read(new BlockId(first.fileName(), first.number()+start), pages);
+      }
+   }
+
    /**
-    * Tries to pin a buffer to the specified block. 
-    * If there is already a buffer assigned to that block
-    * then that buffer is used;  
-    * otherwise, an unpinned buffer from the pool is chosen.
-    * Returns a null value if there are no available buffers.
+    * Reads the specified block into an unpinned buffer,
+    * unless the block is already in the pool.
+    * This method is called by the read-ahead thread.
+    * The buffer is pinned while its block is read,
+    * but the read itself is done without holding the lock;
+    * a transaction that pins the block in the meantime
+    * waits for the read to finish.
+    * A buffer holding a block that was read ahead
+    * but not yet used is never chosen,
+    * and neither are the last few available buffers
+    * of the block's partition.
     * @param blk a reference to a disk block
-    * @return the pinned buffer
-    */
-   private Buffer tryToPin(BlockId blk) {
-      Buffer buff = findExistingBuffer(blk);
-      if (buff == null) {
-         buff = chooseUnpinnedBuffer();
-         if (buff == null)
-            return null;
-         buff.assignToBlock(blk);
+    * @return false if no buffer could be spared for the block
+    */
+   boolean prefetch(BlockId blk) {
+      return partition(blk).prefetch(blk);
+   }
+
+   /**
+    * Returns the blocks in the pool, hottest first.
+    * Each partition orders its blocks by how recently
+    * they were pinned, and the partitions' lists are interleaved.
+    * @return the resident blocks
+    */
+   public List<BlockId> residentBlocks() {
+      List<List<BlockId>> lists = new ArrayList<>();
+      for (BufferPartition p : partitions)
+         lists.add(p.residentBlocks());
+      List<BlockId> blks = new ArrayList<>();
+      for (int i=0; ; i++) {
+         int added = 0;
+         for (List<BlockId> l : lists)
+            if (i < l.size()) {
+               blks.add(l.get(i));
+               added++;
+            }
+         if (added == 0)
+            break;
       }
-      if (!buff.isPinned())
-         numAvailable--;
-      buff.pin();
-      return buff;
+      return blks;
    }
-   
-   private Buffer findExistingBuffer(BlockId blk) {
-      for (Buffer buff : bufferpool) {
-         BlockId b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
+
+   /**
+    * Writes the list of blocks in the pool to the specified file,
+    * hottest first, for {@link #warmUp(File)} to read back.
+    * The list is written to a temporary file that then
+    * replaces the old one, so a crash leaves the old list intact.
+    * @param f the file holding the list
+    */
+   public void saveResidentBlocks(File f) {
+      File tmp = new File(f.getPath() + ".tmp");
+      try {
+         try (PrintWriter out = new PrintWriter(new FileWriter(tmp))) {
+            for (BlockId blk : residentBlocks())
+               out.println(blk.number() + " " + blk.fileName());
+         }
+         Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + f);
       }
-      return null;
    }
-   
-   private Buffer chooseUnpinnedBuffer() {
-      for (Buffer buff : bufferpool)
-         if (!buff.isPinned())
-         return buff;
-      return null;
+
+   /**
+    * Reads back the blocks listed by {@link #saveResidentBlocks(File)}.
+    * As many of the hottest blocks as the pool has buffers
+    * are read by a background thread, in file and block order,
+    * so the reads are mostly sequential.
+    * The blocks are read as read-ahead reads them, leaving
+    * spare buffers and giving way to waiting pins, so they do
+    * not hold up the transactions that start meanwhile.
+    * Nothing is read if the file does not exist.
+    * The list is only a hint, so a file that cannot be
+    * read or parsed is reported and deleted,
+    * and the pool starts cold.
+    * @param f the file holding the list
+    */
+   public void warmUp(File f) {
+      if (!f.exists())
+         return;
+      int max = size();
+      List<BlockId> blks = new ArrayList<>();
+      try (BufferedReader in = new BufferedReader(new FileReader(f))) {
+         String line;
+         while ((line = in.readLine()) != null && blks.size() < max) {
+            int i = line.indexOf(' ');
+            int blknum = Integer.parseInt(line.substring(0, i));
+            String filename = line.substring(i+1);
+            if (blknum < 0 || filename.isEmpty())
+               throw new IllegalArgumentException("bad line: " + line);
+            blks.add(new BlockId(filename, blknum));
+         }
+      }
+      catch (IOException | RuntimeException e) {
+         System.out.println("ignoring unreadable " + f + ": " + e);
+         f.delete();
+         return;
+      }
+      new WarmUp(this, fm, blks);
+   }
+
+   private BufferPartition partition(BlockId blk) {
+      BufferPartition[] parts = poolOf(blk.fileName()).partitions;
+      if (parts.length == 1)
+         return parts[0];
+      int h = blk.hashCode();
+      h ^= (h >>> 16);
+      return parts[(h & 0x7fffffff) % parts.length];
+   }
+
+   /**
+    * Returns the pool that holds the blocks of the specified file.
+    * The pool of each file is remembered, so the patterns
+    * are only matched the first time the file is used.
+    */
+   private Pool poolOf(String filename) {
+      List<Pool> pools = namedPools;
+      if (pools.isEmpty())
+         return defaultPool;
+      Pool pool = poolOfFile.get(filename);
+      if (pool == null) {
+         pool = defaultPool;
+         for (Pool p : pools)
+            if (p.matches(filename)) {
+               pool = p;
+               break;
+            }
+         poolOfFile.put(filename, pool);
+      }
+      return pool;
    }
 }
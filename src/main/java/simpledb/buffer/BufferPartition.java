@@ -0,0 +1,955 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+/**
+ * One partition of the buffer pool.
+ * Every block belongs to one partition, chosen from the hash
+ * of its {@link BlockId}, and can only be held by a buffer
+ * of that partition.
+ * A partition has its own buffers, hash table, free list,
+ * replacement policy and lock, so threads that pin blocks
+ * of different partitions do not contend with each other.
+ * <P>
+ * A pin that finds no unpinned buffer in its partition
+ * joins the partition's FIFO queue of waiters.
+ * When a buffer is unpinned, only the waiter at the head
+ * of the queue is woken, and while the queue is not empty no
+ * other pin may take an unpinned buffer, so the freed buffer
+ * goes to the longest waiter.
+ * A pin of a block that is being read or written waits on
+ * a condition of its own, which is signalled when the I/O finishes.
+ * A waiter gives up after the partition's pin timeout.
+ * <P>
+ * The dirty buffers are kept in a set for each transaction,
+ * so that committing a transaction takes time proportional
+ * to the number of buffers it modified, not to the size of the pool.
+ * Whenever a buffer becomes clean while holding the lock,
+ * it is taken out of its transaction's set.
+ * <P>
+ * A pin that misses reads its block without holding the lock:
+ * the buffer it takes is pinned and in the loading state
+ * while the block is read, so that other pins of the block
+ * wait for the read, and pins of other blocks do not.
+ * If the buffer was dirty, the pin writes its old block first,
+ * also without the lock.
+ * <P>
+ * The background writer cleans a partition through
+ * {@link #cleanDirty(int)}, and a commit through {@link #flushAll(int)};
+ * both write copies of the buffers without the lock.
+ * The blocks they are writing, and the
+ * dirty blocks being written by the pins that replaced them, are
+ * kept in a table, so that a block is not read back
+ * into the pool, nor written again, before its write has finished.
+ * <P>
+ * A partition can be resized while it is in use.
+ * Shrinking it retires unpinned buffers at once, writing them
+ * first if they are dirty; the buffers that are pinned
+ * are retired when they are unpinned, or, if the background
+ * writer is still writing an older image of their block,
+ * once that write has finished.
+ */
+class BufferPartition {
+   private static final int SPARE_BUFFERS = 2; // never used for read-ahead
+   private static final int WRITE_BATCH = 16;  // buffers copied per cleaning step
+
+   private FileMgr fm;
+   private LogMgr lm;
+   private int numPartitions;
+   private Buffer[] frames;
+   private int numAvailable;
+   private Map<BlockId,Buffer> bufferTable = new HashMap<>();
+   private Set<Buffer> emptyFrames = new LinkedHashSet<>(); // unpinned, holding no block
+   private ReplacementPolicy policy = new LruPolicy();
+   private int hits = 0, misses = 0;
+   private int readAheadHits = 0, readAheadMisses = 0;
+   private Map<Integer,Set<Buffer>> dirtyBuffers = new HashMap<>(); // by modifying transaction
+   private int numDirty = 0;
+   private Map<BlockId,Integer> writing = new HashMap<>(); // blocks being written, and their transactions
+   private int cleanCursor = 0;
+   private volatile BackgroundWriter writer = null;
+   private int retiring = 0; // pinned buffers to retire when unpinned
+   private long pinClock = 0;
+
+   private ReentrantLock latch = new ReentrantLock();
+   private Deque<Waiter> frameWaiters = new ArrayDeque<>();      // waiting for an unpinned buffer
+   private Map<BlockId,Condition> blockWaiters = new HashMap<>(); // waiting for a block's I/O
+   private Condition writesDone = latch.newCondition();
+   private long timeoutNanos = TimeUnit.SECONDS.toNanos(10);
+   private long pinWaits = 0, pinWaitNanos = 0, maxPinWaitNanos = 0, pinTimeouts = 0;
+
+   /**
+    * A pin waiting in the queue for an unpinned buffer.
+    * A waiter that is woken has been taken off the queue
+    * and is allowed to take a buffer before the waiters
+    * still in the queue.
+    */
+   private static class Waiter {
+      Condition cond;
+      boolean woken = false;
+
+      Waiter(Condition cond) {
+         this.cond = cond;
+      }
+   }
+
+   /**
+    * Creates a partition having the specified number of buffers.
+    * @param numbuffs the number of buffers to allocate
+    * @param numPartitions the number of partitions of the pool
+    */
+   BufferPartition(FileMgr fm, LogMgr lm, int numbuffs, int numPartitions) {
+      this.fm = fm;
+      this.lm = lm;
+      this.numPartitions = numPartitions;
+      frames = new Buffer[numbuffs];
+      numAvailable = numbuffs;
+      for (int i=0; i<numbuffs; i++) {
+         frames[i] = new Buffer(fm, lm);
+         frames[i].partition = this;
+         emptyFrames.add(frames[i]);
+      }
+   }
+
+   int size() {
+      latch.lock();
+      try {
+         return frames.length - retiring;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Changes the number of buffers of the partition,
+    * and installs the specified replacement policy,
+    * created for the new size.
+    * New buffers are empty, and are handed to the waiting pins.
+    * When shrinking, unpinned buffers are retired at once:
+    * empty ones first, and then the policy's victims,
+    * which are written to disk if they are dirty.
+    * If too few buffers are unpinned, the rest are retired
+    * as they are unpinned.
+    * @param newsize the new number of buffers
+    * @param policy the replacement policy for the new size
+    */
+   void resize(int newsize, ReplacementPolicy policy) {
+      latch.lock();
+      try {
+         int current = frames.length - retiring;
+         if (newsize >= current) {
+            int cancelled = Math.min(retiring, newsize - current);
+            retiring -= cancelled;
+            int added = newsize - current - cancelled;
+            Buffer[] newframes = Arrays.copyOf(frames, frames.length + added);
+            for (int i=frames.length; i<newframes.length; i++) {
+               newframes[i] = new Buffer(fm, lm);
+               newframes[i].partition = this;
+               emptyFrames.add(newframes[i]);
+               numAvailable++;
+               wakeFrameWaiter();
+            }
+            frames = newframes;
+         }
+         else {
+            retiring += current - newsize;
+            retireUnpinned();
+         }
+         setReplacementPolicy(policy);
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Sets the partition's replacement policy.
+    * The buffers that already hold a block are handed to the
+    * new policy, as if their blocks had just been read.
+    * @param policy the replacement policy
+    */
+   void setReplacementPolicy(ReplacementPolicy policy) {
+      latch.lock();
+      try {
+         for (Buffer buff : frames)
+            if (buff.block() != null) {
+               policy.pinned(buff);
+               if (!buff.isPinned())
+                  policy.unpinned(buff);
+            }
+         this.policy = policy;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   void setWriter(BackgroundWriter writer) {
+      this.writer = writer;
+   }
+
+   int available() {
+      latch.lock();
+      try {
+         return numAvailable;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   int hits() {
+      latch.lock();
+      try {
+         return hits;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   int misses() {
+      latch.lock();
+      try {
+         return misses;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   int readAheadHits() {
+      latch.lock();
+      try {
+         return readAheadHits;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   int readAheadMisses() {
+      latch.lock();
+      try {
+         return readAheadMisses;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   void resetHitCounts() {
+      latch.lock();
+      try {
+         hits = misses = 0;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of dirty buffers in the partition.
+    * @return the number of dirty buffers
+    */
+   int dirtyCount() {
+      latch.lock();
+      try {
+         return numDirty;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Returns the blocks held by the partition's buffers,
+    * most recently pinned first.
+    * Blocks that were read ahead but not yet pinned
+    * are left out.
+    * @return the resident blocks, hottest first
+    */
+   List<BlockId> residentBlocks() {
+      latch.lock();
+      try {
+         List<Buffer> buffs = new ArrayList<>();
+         for (Buffer buff : frames)
+            if (buff.block() != null && !buff.isLoading() && !buff.isReadAhead())
+               buffs.add(buff);
+         buffs.sort((b1, b2) -> Long.compare(b2.lastPin, b1.lastPin));
+         List<BlockId> blks = new ArrayList<>();
+         for (Buffer buff : buffs)
+            blks.add(buff.block());
+         return blks;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Records that the buffer is about to be modified by
+    * the specified transaction, moving it to that transaction's set.
+    * It is called by {@link Buffer#setModified(int, long)}
+    * when the modifying transaction changes.
+    * @param buff a pinned buffer of this partition
+    * @param txnum the id of the modifying transaction
+    */
+   void modified(Buffer buff, int txnum) {
+      latch.lock();
+      try {
+         untrack(buff);
+         if (txnum >= 0) {
+            dirtyBuffers.computeIfAbsent(txnum, k -> new HashSet<>()).add(buff);
+            numDirty++;
+         }
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Flushes the partition's buffers modified by the specified transaction.
+    * It first waits for the background writer to finish writing
+    * the transaction's blocks it has taken, and any older image
+    * of the blocks to be flushed, so that those writes
+    * neither come after the commit nor overwrite the newer images.
+    * Like {@link #cleanDirty(int)}, it copies the buffers
+    * and marks them clean while holding the lock,
+    * and writes the copies without it; the blocks are in
+    * the table of blocks being written until then.
+    * @param txnum the transaction's id number
+    */
+   void flushAll(int txnum) {
+      List<BlockId> blks = new ArrayList<>();
+      List<Page> pages = new ArrayList<>();
+      long maxlsn = -1;
+      latch.lock();
+      try {
+         while (writing.containsValue(txnum) || isWriting(dirtyBuffers.get(txnum)))
+            awaitWrite();
+         Set<Buffer> dirty = dirtyBuffers.remove(txnum);
+         if (dirty == null)
+            return;
+         numDirty -= dirty.size();
+         for (Buffer buff : dirty) {
+            writing.put(buff.block(), txnum);
+            maxlsn = Math.max(maxlsn, buff.modifyingLsn());
+            blks.add(buff.block());
+            pages.add(buff.cleanCopy());
+         }
+      }
+      finally {
+         latch.unlock();
+      }
+      try {
+         lm.flush(maxlsn);
+         for (int i=0; i<blks.size(); i++)
+            fm.write(blks.get(i), pages.get(i));
+      }
+      finally {
+         writesFinished(blks);
+      }
+   }
+
+   /**
+    * Writes dirty unpinned buffers until the partition has
+    * at most the specified number of dirty buffers,
+    * or no dirty buffer is unpinned.
+    * The buffers are copied and marked clean a batch at a time
+    * while holding the lock, and the copies are written without it.
+    * This method is called by the background writer.
+    * @param target the number of dirty buffers to leave
+    */
+   void cleanDirty(int target) {
+      while (true) {
+         List<BlockId> blks = new ArrayList<>();
+         List<Page> pages = new ArrayList<>();
+         long maxlsn = -1;
+         latch.lock();
+         try {
+            int excess = numDirty - target;
+            for (int i=0; i<frames.length && blks.size()<Math.min(excess, WRITE_BATCH); i++) {
+               Buffer buff = frames[cleanCursor];
+               cleanCursor = (cleanCursor + 1) % frames.length;
+               if (buff.modifyingTx() >= 0 && !buff.isPinned() && !buff.isLoading()
+                     && !writing.containsKey(buff.block())) {
+                  writing.put(buff.block(), buff.modifyingTx());
+                  maxlsn = Math.max(maxlsn, buff.modifyingLsn());
+                  blks.add(buff.block());
+                  untrack(buff);
+                  pages.add(buff.cleanCopy());
+               }
+            }
+         }
+         finally {
+            latch.unlock();
+         }
+         if (blks.isEmpty())
+            return;
+         try {
+            lm.flush(maxlsn);
+            for (int i=0; i<blks.size(); i++)
+               fm.write(blks.get(i), pages.get(i));
+         }
+         finally {
+            writesFinished(blks);
+         }
+      }
+   }
+
+   /**
+    * Takes the written blocks out of the table of blocks
+    * being written, and wakes the threads waiting for them.
+    * @param blks the blocks whose writes have finished
+    */
+   private void writesFinished(List<BlockId> blks) {
+      latch.lock();
+      try {
+         for (BlockId blk : blks) {
+            writing.remove(blk);
+            signalBlock(blk);
+         }
+         writesDone.signalAll();
+         retireUnpinned();
+         if (numAvailable > 0)
+            wakeFrameWaiter();  // its buffers may have been held back by the writes
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Discards the partition's buffers holding blocks of the specified file.
+    * @see BufferMgr#discardBlocks(String)
+    */
+   void discardBlocks(String filename) {
+      latch.lock();
+      try {
+         while (isWriting(filename))
+            awaitWrite();
+         for (Buffer buff : new ArrayList<>(bufferTable.values())) {
+            BlockId b = buff.block();
+            if (b.fileName().equals(filename) && !buff.isLoading()) {
+               untrack(buff);
+               if (!buff.isPinned()) {
+                  policy.removed(buff);
+                  bufferTable.remove(b, buff);
+                  emptyFrames.add(buff);
+                  wakeFrameWaiter();
+               }
+               buff.discard();
+            }
+         }
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Unpins the buffer. A buffer that stays pinned is
+    * unpinned without taking the lock; otherwise the buffer
+    * goes back on the free list or to the replacement policy,
+    * and the longest waiter for a buffer is woken.
+    * @param buff a buffer of this partition
+    */
+   void unpin(Buffer buff) {
+      if (buff.unpinIfShared())
+         return;
+      latch.lock();
+      try {
+         buff.unpin();
+         if (!buff.isPinned()) {
+            numAvailable++;
+            if (buff.block() == null)
+               emptyFrames.add(buff);
+            else
+               policy.unpinned(buff);
+            if (retiring > 0 && !writing.containsKey(buff.block()))
+               retire(buff);  // otherwise it is retired once its older image is written
+            else
+               wakeFrameWaiter();
+         }
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Pins a buffer to the specified block, waiting until
+    * a buffer of the partition becomes available
+    * or the block's I/O finishes.
+    * A pin that needs a buffer waits in the FIFO queue;
+    * when it is woken but still finds no buffer
+    * (because the freed buffer was pinned for its own block
+    * in the meantime), it goes back to the head of the queue.
+    * If the block is not in the pool, it is read
+    * after the lock is released.
+    * @see BufferMgr#pin(BlockId, BufferRing)
+    */
+   Buffer pin(BlockId blk, ReadAhead readAhead, BufferRing ring) {
+      Buffer buff = waitToPin(blk, readAhead, ring);
+      if (buff.isLoading()) {  // set by this thread, which must read the block
+         boolean ok = false;
+         try {
+            buff.load();
+            ok = true;
+         }
+         finally {
+            finishLoad(buff, ok);
+            if (!ok)
+               unpin(buff);
+         }
+      }
+      return buff;
+   }
+
+   /**
+    * Pins a buffer to the specified block, waiting as
+    * described in {@link #pin(BlockId, ReadAhead, BufferRing)},
+    * but without reading the block.
+    * @return the pinned buffer, in the loading state if the block was not in the pool
+    */
+   private Buffer waitToPin(BlockId blk, ReadAhead readAhead, BufferRing ring) {
+      Waiter me = null;
+      long start = 0;
+      latch.lock();
+      try {
+         while (true) {
+            Buffer buff = tryToPin(blk, readAhead, ring, me);
+            long now = System.nanoTime();
+            if (buff != null) {
+               if (me != null) {
+                  frameWaiters.remove(me);
+                  if (numAvailable > 0)
+                     wakeFrameWaiter();  // there may be a buffer for the next waiter too
+               }
+               if (start > 0)
+                  recordWait(now - start);
+               return buff;
+            }
+            if (start == 0)
+               start = now;
+            long remaining = start + timeoutNanos - now;
+            if (remaining <= 0) {
+               pinTimeouts++;
+               recordWait(now - start);
+               giveUp(me);
+               throw new BufferAbortException();
+            }
+            if (isBusy(blk))
+               blockWaiters.computeIfAbsent(blk, k -> latch.newCondition()).awaitNanos(remaining);
+            else {
+               if (me == null) {
+                  me = new Waiter(latch.newCondition());
+                  frameWaiters.addLast(me);
+               }
+               else if (me.woken) {
+                  me.woken = false;
+                  frameWaiters.addFirst(me);
+               }
+               me.cond.awaitNanos(remaining);
+            }
+         }
+      }
+      catch(InterruptedException e) {
+         giveUp(me);
+         throw new BufferAbortException();
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Sets how long a pin waits before giving up.
+    * @param millis the timeout in milliseconds
+    */
+   void setPinTimeout(long millis) {
+      latch.lock();
+      try {
+         timeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Returns the partition's pin wait statistics:
+    * the number of pins that waited, the total and
+    * the longest wait in nanoseconds, and the number
+    * of pins that timed out.
+    * @return the four statistics, in that order
+    */
+   long[] waitStats() {
+      latch.lock();
+      try {
+         return new long[] {pinWaits, pinWaitNanos, maxPinWaitNanos, pinTimeouts};
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Pins a buffer to the specified block as part of a range pin,
+    * without waiting and without reading the block.
+    * If the block is not in the pool, the returned buffer
+    * is in the loading state, and the caller must read the block
+    * and then call {@link #finishLoad(Buffer, boolean)}.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring of buffers, or null
+    * @return the pinned buffer, or null if the block is being loaded
+    *         by another thread or there is no unpinned buffer
+    */
+   Buffer pinLater(BlockId blk, BufferRing ring) {
+      latch.lock();
+      try {
+         Buffer buff = findExistingBuffer(blk);
+         if (buff == null) {
+            if (writing.containsKey(blk) || !frameWaiters.isEmpty())
+               return null;
+            buff = chooseUnpinnedBuffer(ring);
+            if (buff == null)
+               return null;
+            assignBuffer(buff, blk);
+            misses++;
+         }
+         else if (buff.isLoading())
+            return null;
+         else
+            hits++;
+         pinBuffer(buff);
+         return buff;
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Ends the loading state of the buffer and notifies
+    * the threads waiting for its block,
+    * and for the dirty block it replaced, if any.
+    * A buffer whose load failed no longer holds its block.
+    * @param buff a loading buffer of this partition
+    * @param ok true if the block was read successfully
+    */
+   void finishLoad(Buffer buff, boolean ok) {
+      latch.lock();
+      try {
+         BlockId replaced = buff.replacedBlock();
+         if (replaced != null) {
+            writing.remove(replaced);
+            signalBlock(replaced);
+            writesDone.signalAll();
+         }
+         BlockId blk = buff.block();
+         if (!ok) {
+            policy.removed(buff);
+            bufferTable.remove(blk, buff);
+         }
+         buff.loadFinished(ok);
+         signalBlock(blk);
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Reads the specified block into an unpinned buffer,
+    * unless the block is already in the pool.
+    * @see BufferMgr#prefetch(BlockId)
+    */
+   boolean prefetch(BlockId blk) {
+      Buffer buff = null;
+      latch.lock();
+      try {
+         if (findExistingBuffer(blk) != null || writing.containsKey(blk))
+            return true;
+         if (numAvailable <= SPARE_BUFFERS || !frameWaiters.isEmpty())
+            return false;
+         if (!emptyFrames.isEmpty())
+            buff = emptyFrames.iterator().next();
+         else
+            buff = policy.chooseVictim(b -> !b.isReadAhead() && !writing.containsKey(b.block()));
+         if (buff == null)
+            return false;
+         assignBuffer(buff, blk);
+         pinBuffer(buff);
+      }
+      finally {
+         latch.unlock();
+      }
+      boolean ok = false;
+      try {
+         buff.load();
+         ok = true;
+      }
+      finally {
+         latch.lock();
+         try {
+            finishLoad(buff, ok);
+            if (ok)
+               buff.markReadAhead();
+            unpin(buff);
+         }
+         finally {
+            latch.unlock();
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Tries to pin a buffer to the specified block.
+    * If there is already a buffer assigned to that block
+    * then that buffer is used;
+    * otherwise, an unpinned buffer from the partition is chosen,
+    * and returned in the loading state for the caller to read the block.
+    * Returns a null value if there are no available buffers,
+    * or if other pins are ahead of this one in the queue.
+    * @param blk a reference to a disk block
+    * @param readAhead the read-ahead to tell of the access, or null
+    * @param ring the scan's ring of buffers, or null
+    * @param me the pin's place in the queue, or null if it has not waited
+    * @return the pinned buffer
+    */
+   private Buffer tryToPin(BlockId blk, ReadAhead readAhead, BufferRing ring, Waiter me) {
+      Buffer buff = findExistingBuffer(blk);
+      if (buff != null && buff.isLoading())
+         return null; // wait for the read-ahead to finish
+      if (buff == null) {
+         if (writing.containsKey(blk))
+            return null; // wait for the background writer to finish
+         if (!frameWaiters.isEmpty() && (me == null || (!me.woken && frameWaiters.peekFirst() != me)))
+            return null; // the longer waiters go first
+         buff = chooseUnpinnedBuffer(ring);
+         if (buff == null)
+            return null;
+         assignBuffer(buff, blk);
+         misses++;
+         if (readAhead != null && readAhead.isSequential(blk))
+            readAheadMisses++;
+      }
+      else {
+         hits++;
+         if (buff.isReadAhead())
+            readAheadHits++;
+      }
+      pinBuffer(buff);
+      if (readAhead != null)
+         readAhead.accessed(blk);
+      return buff;
+   }
+
+   /**
+    * Takes the buffer out of the dirty set of its
+    * modifying transaction, if it is dirty.
+    * It is called before the buffer is made clean.
+    */
+   private void untrack(Buffer buff) {
+      int txnum = buff.modifyingTx();
+      if (txnum < 0)
+         return;
+      Set<Buffer> dirty = dirtyBuffers.get(txnum);
+      if (dirty != null && dirty.remove(buff)) {
+         numDirty--;
+         if (dirty.isEmpty())
+            dirtyBuffers.remove(txnum);
+      }
+   }
+
+   private boolean isWriting(Set<Buffer> buffs) {
+      if (buffs != null)
+         for (Buffer buff : buffs)
+            if (writing.containsKey(buff.block()))
+               return true;
+      return false;
+   }
+
+   private boolean isWriting(String filename) {
+      for (BlockId blk : writing.keySet())
+         if (blk.fileName().equals(filename))
+            return true;
+      return false;
+   }
+
+   /**
+    * Waits for the background writer to finish a batch.
+    * The wait is not abandoned if the thread is interrupted,
+    * since the caller must not go on until the writes are done.
+    */
+   private void awaitWrite() {
+      writesDone.awaitUninterruptibly();
+   }
+
+   private boolean isBusy(BlockId blk) {
+      Buffer buff = findExistingBuffer(blk);
+      return (buff != null && buff.isLoading()) || writing.containsKey(blk);
+   }
+
+   /**
+    * Wakes the pins waiting for the I/O of the block to finish.
+    */
+   private void signalBlock(BlockId blk) {
+      Condition c = blockWaiters.remove(blk);
+      if (c != null)
+         c.signalAll();
+   }
+
+   /**
+    * Wakes the pin at the head of the queue,
+    * which may then take a buffer ahead of the others.
+    */
+   private void wakeFrameWaiter() {
+      Waiter w = frameWaiters.pollFirst();
+      if (w != null) {
+         w.woken = true;
+         w.cond.signal();
+      }
+   }
+
+   /**
+    * Takes a pin that is giving up out of the queue.
+    * If it had been woken, the buffer it was woken for
+    * goes to the next waiter.
+    */
+   private void giveUp(Waiter me) {
+      if (me == null)
+         return;
+      frameWaiters.remove(me);
+      if (me.woken)
+         wakeFrameWaiter();
+   }
+
+   private void recordWait(long nanos) {
+      pinWaits++;
+      pinWaitNanos += nanos;
+      maxPinWaitNanos = Math.max(maxPinWaitNanos, nanos);
+   }
+
+   private Buffer findExistingBuffer(BlockId blk) {
+      return bufferTable.get(blk);
+   }
+
+   /**
+    * Chooses the buffer to replace for a scan with a ring:
+    * the ring's oldest buffer if it can be reused,
+    * and otherwise a buffer from the pool, which joins the ring.
+    */
+   private Buffer chooseUnpinnedBuffer(BufferRing ring) {
+      if (ring == null)
+         return chooseUnpinnedBuffer();
+      int share = Math.max(1, ring.size() / numPartitions);
+      Buffer buff = ring.oldest(this, share);
+      if (buff != null && buff.partition == this && !buff.isPinned() && !buff.isLoading()
+            && (buff.block() == null || !writing.containsKey(buff.block()))) {
+         ring.reused(this);
+         return buff;
+      }
+      buff = chooseUnpinnedBuffer();
+      if (buff != null)
+         ring.add(this, buff, share);
+      return buff;
+   }
+
+   /**
+    * Retires unpinned buffers until no more are to be retired,
+    * or none is left that can be.
+    */
+   private void retireUnpinned() {
+      while (retiring > 0) {
+         Buffer buff = chooseUnpinnedBuffer();
+         if (buff == null)
+            return;
+         retire(buff);
+      }
+   }
+
+   /**
+    * Takes an unpinned buffer out of the partition,
+    * writing it first if it is dirty.
+    * A retired buffer belongs to no partition,
+    * so a ring still holding it will not reuse it.
+    */
+   private void retire(Buffer buff) {
+      BlockId blk = buff.block();
+      if (blk != null) {
+         untrack(buff);
+         buff.flush();
+         policy.removed(buff);
+         bufferTable.remove(blk, buff);
+      }
+      emptyFrames.remove(buff);
+      numAvailable--;
+      retiring--;
+      buff.discard();
+      buff.partition = null;
+      Buffer[] newframes = new Buffer[frames.length - 1];
+      int j = 0;
+      for (Buffer b : frames)
+         if (b != buff)
+            newframes[j++] = b;
+      frames = newframes;
+      cleanCursor = 0;
+   }
+
+   private Buffer chooseUnpinnedBuffer() {
+      if (!emptyFrames.isEmpty())
+         return emptyFrames.iterator().next();
+      // a buffer whose old image is being written must not write its new one yet
+      return policy.chooseVictim(b -> !writing.containsKey(b.block()));
+   }
+
+   /**
+    * Assigns the buffer to the specified block,
+    * keeping the hash table up to date.
+    * The block is read later, by {@link Buffer#load()}.
+    * If the buffer is dirty, its old block is entered in
+    * the table of blocks being written, until the load
+    * has written it.
+    * @param buff an unpinned buffer
+    * @param blk a reference to a disk block
+    */
+   private void assignBuffer(Buffer buff, BlockId blk) {
+      BlockId old = buff.block();
+      if (buff.modifyingTx() >= 0) {
+         if (writer != null)
+            writer.wakeUp();  // this pin has to write the buffer itself
+         writing.put(old, buff.modifyingTx());
+      }
+      untrack(buff);
+      if (old != null) {
+         policy.removed(buff);
+         bufferTable.remove(old, buff);
+      }
+      buff.assignToBlockLater(blk);
+      bufferTable.put(blk, buff);
+   }
+
+   /**
+    * Pins the buffer, taking it off the free list
+    * if it was unpinned, and tells the replacement policy.
+    */
+   private void pinBuffer(Buffer buff) {
+      if (!buff.isPinned()) {
+         numAvailable--;
+         emptyFrames.remove(buff);
+      }
+      buff.pin();
+      buff.lastPin = ++pinClock;
+      policy.pinned(buff);
+   }
+}
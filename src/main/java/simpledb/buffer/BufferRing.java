@@ -0,0 +1,98 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * A small ring of buffers reserved for one large scan.
+ * When a scan pins a block that is not in the pool, it reuses
+ * the oldest buffer of its ring, as long as that buffer is unpinned,
+ * instead of asking the replacement policy for a victim.
+ * A scan of a big table thus cycles through a few buffers
+ * and leaves the rest of the pool, and the pages that other
+ * transactions are using, alone.
+ * Pins that find their block already in the pool are not affected.
+ * <P>
+ * Since a block can only be held by a buffer of its partition,
+ * the ring is divided evenly among the partitions.
+ * A ring belongs to a single scan, and so to a single thread;
+ * pins through a ring do not trigger read-ahead, which would
+ * bring the blocks ahead of the scan into the shared pool.
+ */
+public class BufferRing {
+   private static final int MAX_SIZE = 16;
+   private int size;
+   private Map<BufferPartition,Deque<Buffer>> frames = new HashMap<>();
+
+   /**
+    * Creates an empty ring of the specified size.
+    * The ring's buffers are taken from the pool as the scan needs them.
+    * @param size the number of buffers in the ring
+    */
+   public BufferRing(int size) {
+      this.size = size;
+   }
+
+   /**
+    * Returns the size of the ring that a scan of the specified
+    * number of blocks should use, or 0 if the scan should use
+    * the pool as usual.
+    * A scan gets a ring if it reads more than a quarter of the
+    * available buffers; the ring has an eighth of them,
+    * but at least 2 and at most 16.
+    * @param blocks the estimated number of blocks the scan reads
+    * @param available the number of available buffers
+    * @return the size of the ring, or 0
+    */
+   public static int ringSize(int blocks, int available) {
+      if (blocks <= available / 4)
+         return 0;
+      return Math.min(MAX_SIZE, Math.max(2, available / 8));
+   }
+
+   /**
+    * Returns a new ring for a scan of the specified number of blocks,
+    * or null if the scan should use the pool as usual.
+    * @see #ringSize(int, int)
+    */
+   public static BufferRing forScan(int blocks, int available) {
+      int n = ringSize(blocks, available);
+      return (n > 0) ? new BufferRing(n) : null;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Returns the ring's oldest buffer in the specified partition,
+    * if the partition's share of the ring is full.
+    * @param p a partition of the pool
+    * @param share the number of ring buffers the partition holds
+    * @return the oldest buffer, or null if the share is not full
+    */
+   Buffer oldest(BufferPartition p, int share) {
+      Deque<Buffer> q = frames.get(p);
+      return (q != null && q.size() >= share) ? q.peekFirst() : null;
+   }
+
+   /**
+    * Records that the oldest buffer of the partition
+    * has been reused, making it the newest.
+    */
+   void reused(BufferPartition p) {
+      Deque<Buffer> q = frames.get(p);
+      q.addLast(q.removeFirst());
+   }
+
+   /**
+    * Adds a buffer taken from the pool to the ring.
+    * If the partition's share is full, its oldest buffer,
+    * which could not be reused, leaves the ring.
+    */
+   void add(BufferPartition p, Buffer buff, int share) {
+      Deque<Buffer> q = frames.computeIfAbsent(p, k -> new ArrayDeque<>());
+      if (q.size() >= share)
+         q.removeFirst();
+      q.addLast(buff);
+   }
+}
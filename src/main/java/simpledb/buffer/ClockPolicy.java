@@ -0,0 +1,56 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * The clock (second chance) replacement policy.
+ * The buffers form a ring, each with a reference bit
+ * that is set whenever the buffer is pinned.
+ * To choose a victim, a hand sweeps the ring, clearing
+ * the reference bits it passes, and stops at the first
+ * unpinned buffer whose bit is already clear.
+ * This approximates LRU without reordering
+ * anything when a buffer is pinned.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+   private List<Buffer> ring = new ArrayList<>();
+   private Map<Buffer,Integer> positions = new HashMap<>();
+   private BitSet referenced = new BitSet();
+   private int hand = 0;
+
+   public void pinned(Buffer buff) {
+      Integer pos = positions.get(buff);
+      if (pos == null) {
+         pos = ring.size();
+         ring.add(buff);
+         positions.put(buff, pos);
+      }
+      referenced.set(pos);
+   }
+
+   public void unpinned(Buffer buff) {
+   }
+
+   public void removed(Buffer buff) {
+      Integer pos = positions.get(buff);
+      if (pos != null)
+         referenced.clear(pos);
+   }
+
+   public Buffer chooseVictim(Predicate<Buffer> acceptable) {
+      // two sweeps suffice: the first clears every reference bit
+      for (int i=0; i<2*ring.size(); i++) {
+         int pos = hand;
+         hand = (hand + 1) % ring.size();
+         Buffer buff = ring.get(pos);
+         if (buff.isPinned() || buff.block() == null || !acceptable.test(buff))
+            continue;
+         if (referenced.get(pos))
+            referenced.clear(pos);
+         else
+            return buff;
+      }
+      return null;
+   }
+}
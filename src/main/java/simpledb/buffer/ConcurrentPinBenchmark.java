@@ -0,0 +1,60 @@
+package simpledb.buffer;
+
+import java.util.Random;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Measures the throughput of pinning and unpinning blocks
+ * that are already in the buffer pool, from an increasing
+ * number of threads, for a pool with a single partition
+ * (and so a single lock) and for a partitioned pool.
+ * With the partitioned pool the throughput should grow
+ * with the number of threads, up to the number of processors.
+ * The blocks belong to a file that does not exist,
+ * so filling the pool does no disk I/O.
+ */
+public class ConcurrentPinBenchmark {
+   private static final int POOL_SIZE = 16384;
+   private static final int PINS = 1000000;  // per thread
+   private static final int MAX_THREADS = 16;
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB db = new SimpleDB("concurrentpinbenchmark", 400, 8);
+      System.out.println(Runtime.getRuntime().availableProcessors() + " processors");
+      for (int parts : new int[] {1, 32}) {
+         BufferMgr bm = new BufferMgr(db.fileMgr(), db.logMgr(), POOL_SIZE, parts);
+         BlockId[] blks = new BlockId[POOL_SIZE];
+         for (int i=0; i<POOL_SIZE; i++) {
+            blks[i] = new BlockId("nosuchfile", i);
+            bm.unpin(bm.pin(blks[i]));
+         }
+         run(bm, blks, 1);  // warm up
+         for (int threads=1; threads<=MAX_THREADS; threads*=2) {
+            double rate = run(bm, blks, threads);
+            System.out.printf("%d partition(s), %2d thread(s): %,.0f pins per second%n",
+                              parts, threads, rate);
+         }
+      }
+   }
+
+   private static double run(BufferMgr bm, BlockId[] blks, int threads)
+         throws InterruptedException {
+      Thread[] workers = new Thread[threads];
+      for (int t=0; t<threads; t++) {
+         long seed = t;
+         workers[t] = new Thread(() -> {
+            Random rand = new Random(seed);
+            for (int i=0; i<PINS; i++)
+               bm.unpin(bm.pin(blks[rand.nextInt(blks.length)]));
+         });
+      }
+      long start = System.nanoTime();
+      for (Thread w : workers)
+         w.start();
+      for (Thread w : workers)
+         w.join();
+      long elapsed = System.nanoTime() - start;
+      return (double) threads * PINS * 1e9 / elapsed;
+   }
+}
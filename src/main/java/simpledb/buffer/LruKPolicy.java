@@ -0,0 +1,108 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.function.Predicate;
+import simpledb.file.BlockId;
+
+/**
+ * The LRU-K replacement policy.
+ * The victim is the unpinned buffer whose block has the
+ * largest backward K-distance, that is, whose K-th most
+ * recent access is the oldest. A block accessed fewer than
+ * K times has an infinite distance, and such blocks are
+ * replaced in LRU order. Blocks that are scanned once
+ * therefore leave the pool before blocks that are used repeatedly.
+ * <P>
+ * The access history of a block is kept for a while after the
+ * block leaves the pool, so that a block that returns soon
+ * is recognized. The number of histories kept is bounded.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+   private int k;
+   private int maxHistories;
+   private long clock = 0;
+   private Map<BlockId,long[]> history; // the last k access times, most recent first
+   private Map<Buffer,Candidate> candidates = new HashMap<>();
+   private TreeSet<Candidate> victims = new TreeSet<>();
+   private Map<Buffer,Integer> ids = new HashMap<>();
+
+   /**
+    * An unpinned buffer, ordered by the K-th most recent
+    * access to its block, then by the most recent access.
+    */
+   private static class Candidate implements Comparable<Candidate> {
+      Buffer buff;
+      long kth, last;
+      int id;
+
+      public int compareTo(Candidate c) {
+         if (kth != c.kth)
+            return Long.compare(kth, c.kth);
+         if (last != c.last)
+            return Long.compare(last, c.last);
+         return Integer.compare(id, c.id);
+      }
+   }
+
+   /**
+    * Creates an LRU-K policy for a pool of the specified size.
+    * @param k the number of accesses remembered per block
+    * @param numbuffs the number of buffers in the pool
+    */
+   public LruKPolicy(int k, int numbuffs) {
+      this.k = k;
+      this.maxHistories = 2 * numbuffs;
+      history = new LinkedHashMap<BlockId,long[]>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<BlockId,long[]> eldest) {
+            return size() > maxHistories;
+         }
+      };
+   }
+
+   public void pinned(Buffer buff) {
+      Candidate c = candidates.remove(buff);
+      if (c != null)
+         victims.remove(c);
+      BlockId blk = buff.block();
+      long[] times = history.get(blk);
+      if (times == null) {
+         times = new long[k];
+         history.put(blk, times);
+      }
+      System.arraycopy(times, 0, times, 1, k-1);
+      times[0] = ++clock;
+   }
+
+   public void unpinned(Buffer buff) {
+      long[] times = history.get(buff.block());
+      Candidate c = new Candidate();
+      c.buff = buff;
+      c.kth  = (times == null) ? 0 : times[k-1];
+      c.last = (times == null) ? 0 : times[0];
+      c.id   = id(buff);
+      candidates.put(buff, c);
+      victims.add(c);
+   }
+
+   public void removed(Buffer buff) {
+      Candidate c = candidates.remove(buff);
+      if (c != null)
+         victims.remove(c);
+   }
+
+   public Buffer chooseVictim(Predicate<Buffer> acceptable) {
+      for (Candidate c : victims)
+         if (acceptable.test(c.buff))
+            return c.buff;
+      return null;
+   }
+
+   private int id(Buffer buff) {
+      Integer id = ids.get(buff);
+      if (id == null) {
+         id = ids.size();
+         ids.put(buff, id);
+      }
+      return id;
+   }
+}
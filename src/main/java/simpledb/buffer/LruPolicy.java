@@ -0,0 +1,31 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * The least-recently-used replacement policy:
+ * the buffer that was unpinned the longest time ago is replaced.
+ */
+public class LruPolicy implements ReplacementPolicy {
+   private Set<Buffer> unpinned = new LinkedHashSet<>(); // least recently unpinned first
+
+   public void pinned(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      unpinned.add(buff);
+   }
+
+   public void removed(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   public Buffer chooseVictim(Predicate<Buffer> acceptable) {
+      for (Buffer buff : unpinned)
+         if (acceptable.test(buff))
+            return buff;
+      return null;
+   }
+}
@@ -0,0 +1,39 @@
+package simpledb.buffer;
+
+import java.util.Random;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Measures the time to pin and unpin a block that is
+ * already in the buffer pool, for pools of increasing size.
+ * The time should not grow with the size of the pool.
+ * The blocks belong to a file that does not exist,
+ * so filling the pool does no disk I/O.
+ */
+public class PinBenchmark {
+   private static final int PINS = 2000000;
+
+   public static void main(String[] args) {
+      for (int size=1024; size<=65536; size*=4) {
+         SimpleDB db = new SimpleDB("pinbenchmark", 400, size);
+         BufferMgr bm = db.bufferMgr();
+         bm.setReadAhead(0);
+         BlockId[] blks = new BlockId[size];
+         for (int i=0; i<size; i++) {
+            blks[i] = new BlockId("nosuchfile", i);
+            bm.unpin(bm.pin(blks[i]));
+         }
+
+         Random rand = new Random(0);
+         for (int i=0; i<PINS; i++)  // warm up
+            bm.unpin(bm.pin(blks[rand.nextInt(size)]));
+         long start = System.nanoTime();
+         for (int i=0; i<PINS; i++)
+            bm.unpin(bm.pin(blks[rand.nextInt(size)]));
+         long elapsed = System.nanoTime() - start;
+         System.out.println("pool of " + size + " buffers: "
+               + (elapsed / PINS) + " ns per pin and unpin");
+      }
+   }
+}
@@ -0,0 +1,128 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.*;
+import simpledb.file.*;
+
+/**
+ * Detects sequential access to a file and reads the
+ * following blocks into the buffer pool before they are asked for.
+ * The reads are done by a background thread, so that
+ * a scan can process one block while the next ones are read.
+ * <P>
+ * The methods of this class are called by the buffer manager
+ * while it holds the lock of a partition of the pool;
+ * since blocks of one file belong to different partitions,
+ * the methods are also synchronized.
+ */
+class ReadAhead {
+   private static final int MIN_RUN = 2;       // consecutive blocks that make a scan
+   private static final int MAX_TRACKED = 64;  // files whose access pattern is remembered
+
+   private BufferMgr bm;
+   private FileMgr fm;
+   private int window;
+   private ExecutorService reader;
+   private volatile boolean stopped = false;
+   private Map<String,Run> runs = new LinkedHashMap<String,Run>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String,Run> eldest) {
+         return size() > MAX_TRACKED;
+      }
+   };
+
+   /**
+    * The access pattern of one file:
+    * the last block accessed, the number of consecutive blocks
+    * that led up to it, and the first block not yet read ahead.
+    */
+   private static class Run {
+      int last, length, end;
+   }
+
+   /**
+    * Creates a read-ahead for the specified buffer manager.
+    * @param bm the buffer manager that holds the blocks read
+    * @param fm the file manager
+    * @param window the number of blocks to read ahead of a scan
+    */
+   ReadAhead(BufferMgr bm, FileMgr fm, int window) {
+      this.bm = bm;
+      this.fm = fm;
+      this.window = window;
+   }
+
+   /**
+    * Returns true if an access to the specified block
+    * would continue a sequential scan of its file.
+    * @param blk a reference to a disk block
+    * @return true if the block is the next block of a scan
+    */
+   synchronized boolean isSequential(BlockId blk) {
+      Run r = runs.get(blk.fileName());
+      return r != null && blk.number() == r.last + 1 && r.length+1 >= MIN_RUN;
+   }
+
+   /**
+    * Records an access to the specified block.
+    * If the access continues a sequential scan
+    * and the scan has used up half of the blocks read ahead of it,
+    * then the next window of blocks is scheduled for reading.
+    * @param blk a reference to the disk block being pinned
+    */
+   synchronized void accessed(BlockId blk) {
+      String filename = blk.fileName();
+      int blknum = blk.number();
+      Run r = runs.get(filename);
+      if (r == null) {
+         r = new Run();
+         r.length = 1;
+         r.end = blknum + 1;
+         r.last = blknum;
+         runs.put(filename, r);
+         return;
+      }
+      if (blknum == r.last)
+         return;
+      if (blknum == r.last + 1)
+         r.length++;
+      else {
+         r.length = 1;
+         r.end = blknum + 1;
+      }
+      r.last = blknum;
+      if (r.length >= MIN_RUN && r.end - blknum <= window / 2) {
+         int start = Math.max(r.end, blknum + 1);
+         int finish = blknum + window;
+         r.end = finish + 1;
+         schedule(filename, start, finish);
+      }
+   }
+
+   /**
+    * Stops the background thread after its current read.
+    * Blocks scheduled but not yet read are not read,
+    * and no more blocks are scheduled.
+    */
+   synchronized void stop() {
+      stopped = true;
+      if (reader != null)
+         reader.shutdown();
+   }
+
+   private void schedule(String filename, int start, int finish) {
+      if (stopped)
+         return;
+      if (reader == null)
+         reader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "simpledb-readahead");
+            t.setDaemon(true);
+            return t;
+         });
+      reader.execute(() -> {
+         int size = fm.length(filename);
+         for (int n=start; n<=finish && n<size && !stopped; n++)
+            if (!bm.prefetch(new BlockId(filename, n)))
+               return;
+      });
+   }
+}
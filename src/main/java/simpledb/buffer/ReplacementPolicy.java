@@ -0,0 +1,69 @@
+package simpledb.buffer;
+
+import java.util.function.Predicate;
+
+/**
+ * The strategy that decides which buffer the buffer manager
+ * replaces when a block is not in the pool.
+ * The buffer manager tells the policy about every pin,
+ * every buffer whose pin count drops to zero,
+ * and every buffer that stops holding its block;
+ * the policy then chooses among the unpinned buffers.
+ * Buffers that hold no block are reused by the buffer manager
+ * before the policy is asked.
+ * Each partition of the buffer pool has its own policy,
+ * whose methods are called while the partition's lock is held.
+ */
+public interface ReplacementPolicy {
+   /**
+    * Records that the buffer has been pinned.
+    * If the buffer is not known to the policy,
+    * its block has just been read into it.
+    * @param buff the pinned buffer
+    */
+   void pinned(Buffer buff);
+
+   /**
+    * Records that the buffer is no longer pinned,
+    * and so can be replaced.
+    * @param buff the unpinned buffer
+    */
+   void unpinned(Buffer buff);
+
+   /**
+    * Records that the buffer is about to stop holding its block,
+    * because it is being replaced or its block has been discarded.
+    * The buffer still holds the block when this method is called.
+    * @param buff the buffer
+    */
+   void removed(Buffer buff);
+
+   /**
+    * Chooses an unpinned buffer to replace.
+    * @param acceptable a test that the chosen buffer must pass
+    * @return the buffer to replace, or null if there is none
+    */
+   Buffer chooseVictim(Predicate<Buffer> acceptable);
+
+   /**
+    * Creates the policy having the specified name:
+    * "lru", "clock", "lru-k" or "2q".
+    * @param name the name of the policy
+    * @param numbuffs the number of buffers the policy chooses from
+    * @return the policy
+    */
+   static ReplacementPolicy create(String name, int numbuffs) {
+      switch (name.toLowerCase()) {
+      case "lru":
+         return new LruPolicy();
+      case "clock":
+         return new ClockPolicy();
+      case "lru-k":
+         return new LruKPolicy(2, numbuffs);
+      case "2q":
+         return new TwoQPolicy(numbuffs);
+      default:
+         throw new IllegalArgumentException("unknown replacement policy " + name);
+      }
+   }
+}
@@ -0,0 +1,78 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.function.Predicate;
+import simpledb.file.BlockId;
+
+/**
+ * The 2Q replacement policy.
+ * A block read for the first time enters the A1in queue,
+ * which is managed FIFO; a block that is accessed again
+ * after being replaced from A1in is recognized through the
+ * A1out queue of recently replaced blocks, and enters the Am queue,
+ * which is managed LRU.
+ * Victims come from A1in while it holds more than a quarter
+ * of the pool, and from Am otherwise.
+ * A scan thus cycles through A1in without disturbing
+ * the frequently used blocks in Am.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+   private int maxIn, maxOut;
+   private Set<Buffer> a1in = new LinkedHashSet<>();    // oldest first
+   private Set<Buffer> am = new LinkedHashSet<>();      // least recently used first
+   private Set<BlockId> a1out = new LinkedHashSet<>();  // oldest first
+
+   /**
+    * Creates a 2Q policy for a pool of the specified size.
+    * @param numbuffs the number of buffers in the pool
+    */
+   public TwoQPolicy(int numbuffs) {
+      maxIn = Math.max(numbuffs / 4, 1);
+      maxOut = Math.max(numbuffs / 2, 1);
+   }
+
+   public void pinned(Buffer buff) {
+      if (am.remove(buff))
+         am.add(buff);
+      else if (!a1in.contains(buff)) {
+         if (a1out.remove(buff.block()))
+            am.add(buff);
+         else
+            a1in.add(buff);
+      }
+   }
+
+   public void unpinned(Buffer buff) {
+   }
+
+   public void removed(Buffer buff) {
+      if (a1in.remove(buff)) {
+         a1out.add(buff.block());
+         if (a1out.size() > maxOut) {
+            Iterator<BlockId> iter = a1out.iterator();
+            iter.next();
+            iter.remove();
+         }
+      }
+      else
+         am.remove(buff);
+   }
+
+   public Buffer chooseVictim(Predicate<Buffer> acceptable) {
+      Buffer buff = null;
+      if (a1in.size() > maxIn)
+         buff = firstUnpinned(a1in, acceptable);
+      if (buff == null)
+         buff = firstUnpinned(am, acceptable);
+      if (buff == null)
+         buff = firstUnpinned(a1in, acceptable);
+      return buff;
+   }
+
+   private Buffer firstUnpinned(Set<Buffer> queue, Predicate<Buffer> acceptable) {
+      for (Buffer buff : queue)
+         if (!buff.isPinned() && acceptable.test(buff))
+            return buff;
+      return null;
+   }
+}
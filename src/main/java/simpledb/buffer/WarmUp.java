@@ -0,0 +1,52 @@
+package simpledb.buffer;
+
+import java.util.*;
+import simpledb.file.*;
+
+/**
+ * A background thread that reads a saved list of blocks
+ * back into the buffer pool after a restart.
+ * The blocks are read in file and block order, each as
+ * read-ahead would read it, so a block is skipped if its
+ * partition has no buffer to spare.
+ * Blocks of files that no longer exist, and blocks past
+ * the end of their file, are skipped as well.
+ * Warming the pool is only an optimization, so the thread
+ * gives up quietly if a read fails.
+ */
+class WarmUp implements Runnable {
+   private BufferMgr bm;
+   private FileMgr fm;
+   private List<BlockId> blks;
+
+   /**
+    * Creates a warm-up of the specified blocks
+    * and starts its thread.
+    * @param bm the buffer manager
+    * @param fm the file manager
+    * @param blks the blocks to read
+    */
+   WarmUp(BufferMgr bm, FileMgr fm, List<BlockId> blks) {
+      this.bm = bm;
+      this.fm = fm;
+      this.blks = new ArrayList<>(blks);
+      this.blks.sort(Comparator.comparing(BlockId::fileName)
+                               .thenComparingInt(BlockId::number));
+      Thread t = new Thread(this, "simpledb-warmup");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   public void run() {
+      Map<String,Integer> lengths = new HashMap<>();
+      try {
+         for (BlockId blk : blks) {
+            int length = lengths.computeIfAbsent(blk.fileName(), fm::length);
+            if (blk.number() < length)
+               bm.prefetch(blk);
+         }
+      }
+      catch (RuntimeException e) {
+      }
+   }
+}
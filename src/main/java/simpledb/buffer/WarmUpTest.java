@@ -0,0 +1,24 @@
+package simpledb.buffer;
+
+import java.io.*;
+import simpledb.server.SimpleDB;
+
+public class WarmUpTest {
+   public static void main(String[] args) throws IOException {
+      SimpleDB db = new SimpleDB("warmuptest");
+      db.shutdown();
+
+      // Replace the saved list of blocks with garbage.
+      File warm = new File("warmuptest", simpledb.file.FileMgr.WARM_FILE);
+      try (PrintWriter out = new PrintWriter(new FileWriter(warm))) {
+         out.println("0 tblcat.tbl");
+         out.println("not a block");
+         out.println("\u0000\u0001\u0002");
+      }
+
+      // The database opens anyway, cold, and the file is gone.
+      db = new SimpleDB("warmuptest");
+      System.out.println("database opened: " + (db.mdMgr() != null));
+      System.out.println("warm-up file deleted: " + !warm.exists());
+   }
+}
@@ -0,0 +1,308 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A database file whose blocks are stored compressed.
+ * Each block is kept in a slot of the data file; a slot holds
+ * the length of the block's compressed image, followed by the image.
+ * If compression does not shrink a block, the image is the
+ * uncompressed block and its length is stored negated.
+ * Slots are larger than their images, so that a block
+ * whose image grows a little can be rewritten in place.
+ * <P>
+ * The position and capacity of each block's slot are given
+ * by a block-address translation map, which is kept in memory
+ * and in a sidecar file named after the data file
+ * with the suffix ".map".
+ * A block that outgrows its slot moves to a new slot at the end
+ * of the data file; the old slot is not reused.
+ * The map is written to its file only when the file is forced,
+ * after the data file has been forced,
+ * so the map on disk only ever points to images that are on disk.
+ * A block that has been appended but never written has no slot,
+ * and reads as zeros.
+ * <P>
+ * A compressed file cannot be memory mapped, and does not preallocate
+ * extents: appending a block only adds an entry to the map.
+ */
+class CompressedFile extends DbFile {
+   static final String MAP_SUFFIX = ".map";
+   private static final int SLOT_UNIT = 64;
+   private static final int ENTRY_SIZE = 12;  // slot position (long) and capacity (int)
+   private static final int HEADER_SIZE = 4;  // image length
+
+   private int blocksize;
+   private int entriesPerBlock;
+   private DbFile mapfile;
+   private CompressionStats stats;
+   private long[] positions = new long[16];
+   private int[] capacities = new int[16];
+   private int count = 0;
+   private long end = 0;
+   private Set<Integer> dirtyMapBlocks = new TreeSet<>();
+   private final Object forceLock = new Object();
+
+   /**
+    * Creates the file manager's view of the specified compressed file,
+    * and reads its translation map.
+    * @param file the OS file holding the compressed blocks
+    * @param blocksize the number of bytes in each (uncompressed) block
+    * @param durability when writes to the file are made durable
+    * @param handles the cache that limits the number of open files
+    * @param stats the counters to update
+    * @throws IOException
+    */
+   CompressedFile(File file, int blocksize, Durability durability,
+                  HandleCache handles, CompressionStats stats) throws IOException {
+      super(file, blocksize, durability, 1, handles);
+      this.blocksize = blocksize;
+      this.stats = stats;
+      entriesPerBlock = blocksize / ENTRY_SIZE;
+      File mf = new File(file.getPath() + MAP_SUFFIX);
+      mf.createNewFile();  // the map's existence marks the file as compressed
+      mapfile = new DbFile(mf, blocksize, durability, 1, handles);
+      readMap();
+   }
+
+   /**
+    * Reads the specified block from its slot and decompresses it
+    * into the byte buffer.
+    * @see DbFile#read(int, ByteBuffer)
+    */
+   @Override
+   void read(int blknum, ByteBuffer bb) throws IOException {
+      long pos;
+      int cap;
+      synchronized (this) {
+         pos = (blknum < count) ? positions[blknum] : -1;
+         cap = (blknum < count) ? capacities[blknum] : 0;
+      }
+      if (pos < 0) {
+         while (bb.hasRemaining())
+            bb.put((byte) 0);
+         return;
+      }
+      ByteBuffer slot = ByteBuffer.allocate(cap);
+      readAt(pos, slot);
+      int len = slot.getInt(0);
+      if (len < 0) {
+         bb.put(slot.array(), HEADER_SIZE, -len);
+         return;
+      }
+      long start = System.nanoTime();
+      byte[] image = Arrays.copyOfRange(slot.array(), HEADER_SIZE, HEADER_SIZE + len);
+      byte[] page = new byte[blocksize];
+      int n = LZCodec.decompress(image, len, page);
+      stats.decompressNanos.addAndGet(System.nanoTime() - start);
+      bb.put(page, 0, n);
+   }
+
+   /**
+    * Reads consecutive blocks one at a time,
+    * since their slots need not be adjacent.
+    * @see DbFile#read(int, ByteBuffer[])
+    */
+   @Override
+   void read(int blknum, ByteBuffer[] bbs) throws IOException {
+      for (int i=0; i<bbs.length; i++)
+         read(blknum+i, bbs[i]);
+   }
+
+   /**
+    * Writes consecutive blocks one at a time,
+    * since their slots need not be adjacent.
+    * @see DbFile#write(int, ByteBuffer[])
+    */
+   @Override
+   void write(int blknum, ByteBuffer[] bbs) throws IOException {
+      for (int i=0; i<bbs.length; i++)
+         write(blknum+i, bbs[i]);
+   }
+
+   /**
+    * Compresses the byte buffer and writes it to the slot
+    * of the specified block, moving the block to a new slot
+    * if it does not fit.
+    * @see DbFile#write(int, ByteBuffer)
+    */
+   @Override
+   void write(int blknum, ByteBuffer bb) throws IOException {
+      byte[] page = new byte[blocksize];
+      bb.get(page);
+      long start = System.nanoTime();
+      byte[] image = new byte[LZCodec.maxCompressedLength(blocksize)];
+      int len = LZCodec.compress(page, blocksize, image);
+      stats.compressNanos.addAndGet(System.nanoTime() - start);
+
+      ByteBuffer slot;
+      if (len < blocksize) {
+         slot = ByteBuffer.allocate(HEADER_SIZE + len);
+         slot.putInt(len).put(image, 0, len);
+      }
+      else {
+         slot = ByteBuffer.allocate(HEADER_SIZE + blocksize);
+         slot.putInt(-blocksize).put(page);
+      }
+      slot.flip();
+      int needed = slot.remaining();
+
+      long pos;
+      int newcap = 0;
+      synchronized (this) {
+         grow(blknum + 1);
+         if (positions[blknum] >= 0 && capacities[blknum] >= needed)
+            pos = positions[blknum];
+         else {
+            newcap = slotCapacity(needed);
+            pos = end;
+            end += newcap;
+         }
+      }
+      writeAt(pos, slot);
+      if (newcap > 0) {
+         synchronized (this) {
+            positions[blknum] = pos;
+            capacities[blknum] = newcap;
+            dirtyMapBlocks.add(blknum / entriesPerBlock);
+         }
+      }
+      stats.rawBytes.addAndGet(blocksize);
+      stats.compressedBytes.addAndGet(needed);
+   }
+
+   /**
+    * Appends a block, which has no slot until it is written.
+    * @see DbFile#append()
+    */
+   @Override
+   synchronized int append() throws IOException {
+      grow(count + 1);
+      return count - 1;
+   }
+
+   @Override
+   synchronized int length() throws IOException {
+      return count;
+   }
+
+   /**
+    * Forces the data file, and then writes the changed
+    * parts of the translation map and forces them too.
+    * The map is copied before the data file is forced,
+    * so that every slot it points to has been written.
+    * Forces are serialized from the copy to the forcing of the map,
+    * so that a caller that finds no changed map block
+    * has waited for the force that took its changes.
+    * If the force fails, the copied map blocks are marked as changed again.
+    * @see DbFile#force()
+    */
+   @Override
+   void force() throws IOException {
+      synchronized (forceLock) {
+         Map<Integer,ByteBuffer> images = new TreeMap<>();
+         synchronized (this) {
+            for (int b : dirtyMapBlocks)
+               images.put(b, mapBlock(b));
+            dirtyMapBlocks.clear();
+         }
+         boolean ok = false;
+         try {
+            super.force();
+            for (Map.Entry<Integer,ByteBuffer> e : images.entrySet())
+               mapfile.write(e.getKey(), e.getValue());
+            mapfile.force();
+            ok = true;
+         }
+         finally {
+            if (!ok) {
+               synchronized (this) {
+                  dirtyMapBlocks.addAll(images.keySet());
+               }
+            }
+         }
+      }
+   }
+
+   @Override
+   void delete() throws IOException {
+      super.delete();
+      mapfile.delete();
+   }
+
+   /**
+    * Does nothing, because compressed slots
+    * cannot be served from a mapping.
+    * @see DbFile#setMapped(boolean)
+    */
+   @Override
+   void setMapped(boolean mapped) {
+   }
+
+   private void readMap() throws IOException {
+      int mapblocks = mapfile.length();
+      for (int b=0; b<mapblocks; b++) {
+         ByteBuffer bb = ByteBuffer.allocate(blocksize);
+         mapfile.read(b, bb);
+         for (int i=0; i<entriesPerBlock; i++) {
+            long pos = bb.getLong(i * ENTRY_SIZE);
+            int cap = bb.getInt(i * ENTRY_SIZE + 8);
+            if (pos == 0 && cap == 0)
+               continue;  // an unused entry
+            int blknum = b * entriesPerBlock + i;
+            grow(blknum + 1);
+            positions[blknum] = pos;
+            capacities[blknum] = cap;
+            if (pos >= 0)
+               end = Math.max(end, pos + cap);
+         }
+      }
+      dirtyMapBlocks.clear();
+   }
+
+   private ByteBuffer mapBlock(int b) {
+      ByteBuffer bb = ByteBuffer.allocate(blocksize);
+      for (int i=0; i<entriesPerBlock; i++) {
+         int blknum = b * entriesPerBlock + i;
+         if (blknum >= count)
+            break;
+         bb.putLong(i * ENTRY_SIZE, positions[blknum]);
+         bb.putInt(i * ENTRY_SIZE + 8, capacities[blknum]);
+      }
+      return bb;
+   }
+
+   /**
+    * Makes the file at least the specified number of blocks long.
+    * The new blocks have no slot.
+    * This method is called while holding the lock.
+    * @param blocks the new minimum length of the file
+    */
+   private void grow(int blocks) {
+      if (blocks <= count)
+         return;
+      if (blocks > positions.length) {
+         int n = Math.max(blocks, positions.length * 2);
+         positions = Arrays.copyOf(positions, n);
+         capacities = Arrays.copyOf(capacities, n);
+      }
+      for (int i=count; i<blocks; i++) {
+         positions[i] = -1;
+         capacities[i] = 0;
+         dirtyMapBlocks.add(i / entriesPerBlock);
+      }
+      count = blocks;
+   }
+
+   /**
+    * Returns the capacity of a new slot for an image
+    * of the specified size, leaving a quarter again as much
+    * room for the image to grow.
+    */
+   private int slotCapacity(int needed) {
+      int cap = Math.min(needed + needed / 4, HEADER_SIZE + blocksize);
+      return (cap + SLOT_UNIT - 1) / SLOT_UNIT * SLOT_UNIT;
+   }
+}
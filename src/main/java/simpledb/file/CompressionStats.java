@@ -0,0 +1,14 @@
+package simpledb.file;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the page compression done by compressed files.
+ * One instance is shared by all the files of a file manager.
+ */
+class CompressionStats {
+   final AtomicLong rawBytes = new AtomicLong();
+   final AtomicLong compressedBytes = new AtomicLong();
+   final AtomicLong compressNanos = new AtomicLong();
+   final AtomicLong decompressNanos = new AtomicLong();
+}
@@ -0,0 +1,495 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An open database file, as seen by the file manager.
+ * Blocks are read and written with positional channel
+ * operations, so that no seek position is shared between
+ * threads and independent block accesses can proceed in parallel.
+ * Only appends are serialized, and only against other
+ * appends to the same file.
+ * <P>
+ * A file can also be read through a read-only memory mapping,
+ * in which case block reads are served from the operating
+ * system's page cache without a read call.
+ * Writes still go through the channel; the mapping sees them
+ * because the file is mapped shared.
+ * <P>
+ * The file grows in extents of several blocks, written
+ * with a single write, so that appending a block usually
+ * does no I/O at all.
+ * The logical length of the file (the number of blocks
+ * appended) is therefore tracked separately from its size on disk.
+ * When the file is opened, any zeroed blocks at the end of the
+ * last extent are taken to be preallocated, not appended.
+ * Treating an appended block that is still all zeros as
+ * unallocated is harmless, since an empty block holds no data.
+ * <P>
+ * The OS file is opened on demand, and its handle can be
+ * closed by the file manager's {@link HandleCache} whenever
+ * no I/O is using it; the next access reopens it.
+ * The file is not created until a block is written to it.
+ */
+class DbFile {
+   private Path path;
+   private Set<OpenOption> options;
+   private HandleCache handles;
+   private FileChannel channel = null;
+   private int users = 0;
+   private boolean deleted = false;
+   private volatile long lastUsed;
+   private final Object handleLock = new Object();
+   private final Object positionLock = new Object();
+   private final Object forceLock = new Object();
+   private int blocksize;
+   private Durability durability;
+   private int extentsize;
+   private volatile int length;
+   private int allocated;
+   private ByteBuffer zeros = null;
+   private volatile boolean unforced = false;
+   private volatile boolean mapped = false;
+   private volatile MappedByteBuffer map = null;
+
+   /**
+    * Creates the file manager's view of the specified file.
+    * If the OS file exists, its length is determined.
+    * @param file the OS file
+    * @param blocksize the number of bytes in each block
+    * @param durability when writes to the file are made durable
+    * @param extentsize the number of blocks by which the file grows
+    * @param handles the cache that limits the number of open files
+    * @throws IOException
+    */
+   DbFile(File file, int blocksize, Durability durability, int extentsize,
+          HandleCache handles) throws IOException {
+      this.path = file.toPath();
+      this.blocksize = blocksize;
+      this.durability = durability;
+      this.extentsize = Math.max(extentsize, 1);
+      this.handles = handles;
+      options = new HashSet<>(Arrays.asList(READ, WRITE, CREATE));
+      if (durability == Durability.SYNC_EVERY_WRITE)
+         options.add(SYNC);
+      FileChannel ch = acquire(false);
+      if (ch == null)
+         return;
+      try {
+         allocated = (int)(ch.size() / blocksize);
+         length = allocated;
+         ByteBuffer bb = ByteBuffer.allocate(blocksize);
+         while (length > 0 && allocated - length < this.extentsize - 1
+               && isZeroBlock(ch, length-1, bb))
+            length--;
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Reads the specified block into the byte buffer.
+    * Reading stops early if the end of the file is reached.
+    * @param blknum the block number
+    * @param bb the destination buffer, positioned at 0
+    * @throws IOException
+    */
+   void read(int blknum, ByteBuffer bb) throws IOException {
+      long pos = position(blknum);
+      if (mapped && readMapped(pos, bb))
+         return;
+      readAt(pos, bb);
+   }
+
+   /**
+    * Reads consecutive blocks, starting at the specified block,
+    * into the byte buffers with a single scatter read.
+    * A scatter read uses the channel's position, so
+    * scatter reads of the file are serialized;
+    * positional reads and writes are not affected.
+    * Reading stops early if the end of the file is reached.
+    * @param blknum the number of the first block
+    * @param bbs the destination buffers, one per block, positioned at 0
+    * @throws IOException
+    */
+   void read(int blknum, ByteBuffer[] bbs) throws IOException {
+      if (mapped) {
+         for (int i=0; i<bbs.length; i++)
+            read(blknum+i, bbs[i]);
+         return;
+      }
+      FileChannel ch = acquire(false);
+      if (ch == null)
+         return;
+      try {
+         synchronized (positionLock) {
+            ch.position(position(blknum));
+            while (bbs[bbs.length-1].hasRemaining()) {
+               long n = ch.read(bbs);
+               if (n < 0)
+                  break;
+            }
+         }
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Writes the contents of the byte buffer to the specified block.
+    * @param blknum the block number
+    * @param bb the source buffer, positioned at 0
+    * @throws IOException
+    */
+   void write(int blknum, ByteBuffer bb) throws IOException {
+      writeAt(position(blknum), bb);
+      if (blknum >= length)
+         extendTo(blknum + 1);
+   }
+
+   /**
+    * Writes the byte buffers to consecutive blocks,
+    * starting at the specified block, with a single gather write.
+    * Like a scatter read, a gather write uses the channel's
+    * position, so it is serialized with the scatter reads.
+    * @param blknum the number of the first block
+    * @param bbs the source buffers, one per block, positioned at 0
+    * @throws IOException
+    */
+   void write(int blknum, ByteBuffer[] bbs) throws IOException {
+      FileChannel ch = acquire(true);
+      try {
+         synchronized (positionLock) {
+            ch.position(position(blknum));
+            while (bbs[bbs.length-1].hasRemaining())
+               ch.write(bbs);
+         }
+      }
+      finally {
+         release();
+      }
+      if (durability == Durability.SYNC_ON_COMMIT)
+         unforced = true;
+      if (blknum + bbs.length > length)
+         extendTo(blknum + bbs.length);
+   }
+
+   /**
+    * Reads bytes from the specified position of the file
+    * into the byte buffer, until the buffer is full
+    * or the end of the file is reached.
+    * @param pos the position in the file
+    * @param bb the destination buffer
+    * @throws IOException
+    */
+   void readAt(long pos, ByteBuffer bb) throws IOException {
+      FileChannel ch = acquire(false);
+      if (ch == null)
+         return;
+      try {
+         int start = bb.position();
+         while (bb.hasRemaining()) {
+            int n = ch.read(bb, pos + bb.position() - start);
+            if (n < 0)
+               break;
+         }
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Writes the remaining bytes of the byte buffer
+    * at the specified position of the file.
+    * @param pos the position in the file
+    * @param bb the source buffer
+    * @throws IOException
+    */
+   void writeAt(long pos, ByteBuffer bb) throws IOException {
+      FileChannel ch = acquire(true);
+      try {
+         int start = bb.position();
+         while (bb.hasRemaining())
+            ch.write(bb, pos + bb.position() - start);
+      }
+      finally {
+         release();
+      }
+      if (durability == Durability.SYNC_ON_COMMIT)
+         unforced = true;
+   }
+
+   /**
+    * Appends a zeroed block to the end of the file.
+    * Concurrent appends to the same file are serialized,
+    * so that each one gets its own block number.
+    * If the file has no preallocated block left,
+    * a new extent of zeroed blocks is written first.
+    * @return the number of the new block
+    * @throws IOException
+    */
+   synchronized int append() throws IOException {
+      int newblknum = length;
+      if (newblknum >= allocated)
+         preallocate();
+      length = newblknum + 1;
+      return newblknum;
+   }
+
+   /**
+    * Forces any writes not yet on disk to the disk.
+    * The method does nothing unless the file is
+    * in SYNC_ON_COMMIT mode and has been written since
+    * it was last forced.
+    * Forces of the file are serialized, so that a caller
+    * that finds nothing to force has waited for the force
+    * in progress, which covers the writes made before its call.
+    * @throws IOException
+    */
+   void force() throws IOException {
+      synchronized (forceLock) {
+         if (!unforced)
+            return;
+         unforced = false;
+         FileChannel ch = acquire(false);
+         if (ch == null)
+            return;
+         boolean ok = false;
+         try {
+            ch.force(false);
+            ok = true;
+         }
+         finally {
+            if (!ok)
+               unforced = true;
+            release();
+         }
+      }
+   }
+
+   /**
+    * Closes the file's handle, unless some I/O is using it.
+    * This method is called by the handle cache.
+    * @return true if the handle was closed
+    */
+   boolean closeIfIdle() {
+      synchronized (handleLock) {
+         if (users > 0 || channel == null)
+            return false;
+         closeChannel();
+         return true;
+      }
+   }
+
+   /**
+    * Closes the file for good, and deletes the OS file.
+    * I/O that is still in progress completes on the old handle;
+    * later reads find nothing, and later writes fail.
+    * @throws IOException
+    */
+   void delete() throws IOException {
+      synchronized (handleLock) {
+         deleted = true;
+         map = null;
+         if (users == 0 && channel != null)
+            closeChannel();
+      }
+      handles.closed(this);
+      Files.deleteIfExists(path);
+   }
+
+   /**
+    * Returns the time that the file was last accessed,
+    * according to System.nanoTime.
+    * @return the time of the last access
+    */
+   long lastUsed() {
+      return lastUsed;
+   }
+
+   /**
+    * Specifies whether block reads should be
+    * served from a memory mapping of the file.
+    * @param mapped true if the file should be mapped
+    */
+   void setMapped(boolean mapped) {
+      this.mapped = mapped;
+      if (!mapped)
+         map = null;
+   }
+
+   /**
+    * Returns the number of blocks in the file.
+    * @return the number of blocks
+    * @throws IOException
+    */
+   int length() throws IOException {
+      return length;
+   }
+
+   /**
+    * Copies a block from the file's mapping into the byte buffer.
+    * If the file has grown past the end of the mapping
+    * (for example, by appends), the mapping is first extended.
+    * Returns false if the block is not entirely within the file,
+    * or lies beyond the 2GB that a single mapping can cover;
+    * such blocks are read from the channel instead.
+    * @param pos the position of the block in the file
+    * @param bb the destination buffer, positioned at 0
+    * @return true if the block was copied from the mapping
+    * @throws IOException
+    */
+   private boolean readMapped(long pos, ByteBuffer bb) throws IOException {
+      long end = pos + blocksize;
+      if (end > Integer.MAX_VALUE)
+         return false;
+      MappedByteBuffer m = map;
+      if (m == null || end > m.capacity()) {
+         m = remap(end);
+         if (m == null)
+            return false;
+      }
+      ByteBuffer src = m.duplicate();
+      src.limit((int)end);
+      src.position((int)pos);
+      bb.put(src);
+      return true;
+   }
+
+   /**
+    * Maps the current extent of the file,
+    * unless another thread has already mapped
+    * past the specified position.
+    * @param end the position that the mapping must reach
+    * @return the mapping, or null if the file is too short
+    * @throws IOException
+    */
+   private synchronized MappedByteBuffer remap(long end) throws IOException {
+      MappedByteBuffer m = map;
+      if (m != null && end <= m.capacity())
+         return m;
+      FileChannel ch = acquire(false);
+      if (ch == null)
+         return null;
+      try {
+         long size = Math.min(ch.size(), Integer.MAX_VALUE);
+         if (end > size)
+            return null;
+         m = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+         map = m;
+         return m;
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Writes an extent of zeroed blocks at the end of the
+    * allocated part of the file.
+    * @throws IOException
+    */
+   private void preallocate() throws IOException {
+      if (zeros == null)
+         zeros = ByteBuffer.allocate(extentsize * blocksize);
+      zeros.clear();
+      long pos = position(allocated);
+      FileChannel ch = acquire(true);
+      try {
+         while (zeros.hasRemaining())
+            ch.write(zeros, pos + zeros.position());
+      }
+      finally {
+         release();
+      }
+      if (durability == Durability.SYNC_ON_COMMIT)
+         unforced = true;
+      allocated += extentsize;
+   }
+
+   /**
+    * Records that a block was written at or past
+    * the logical end of the file.
+    * @param blocks the new minimum length of the file
+    */
+   private synchronized void extendTo(int blocks) {
+      if (blocks > length)
+         length = blocks;
+      if (blocks > allocated)
+         allocated = blocks;
+   }
+
+   /**
+    * Returns the file's open handle, opening it if necessary,
+    * and registers the caller as a user of the handle.
+    * Each successful call must be matched by a call to {@link #release()}.
+    * @param create true if the OS file should be created if it does not exist
+    * @return the handle, or null if the file does not exist and is not to be created
+    * @throws IOException
+    */
+   private FileChannel acquire(boolean create) throws IOException {
+      boolean opened = false;
+      FileChannel ch;
+      synchronized (handleLock) {
+         if (deleted) {
+            if (create)
+               throw new IOException("file has been deleted");
+            return null;
+         }
+         if (channel == null) {
+            if (!create && !Files.exists(path))
+               return null;
+            channel = FileChannel.open(path, options);
+            opened = true;
+         }
+         users++;
+         ch = channel;
+      }
+      lastUsed = System.nanoTime();
+      if (opened)
+         handles.opened(this);
+      return ch;
+   }
+
+   private void release() {
+      synchronized (handleLock) {
+         users--;
+         if (deleted && users == 0 && channel != null)
+            closeChannel();
+      }
+   }
+
+   private void closeChannel() {
+      try {
+         channel.close();
+      }
+      catch (IOException e) {
+         // the handle is unusable either way
+      }
+      channel = null;
+   }
+
+   private boolean isZeroBlock(FileChannel ch, int blknum, ByteBuffer bb) throws IOException {
+      bb.clear();
+      long pos = position(blknum);
+      while (bb.hasRemaining())
+         if (ch.read(bb, pos + bb.position()) < 0)
+            break;
+      for (int i=0; i<bb.position(); i++)
+         if (bb.get(i) != 0)
+            return false;
+      return true;
+   }
+
+   private long position(int blknum) {
+      return (long)blknum * blocksize;
+   }
+}
@@ -0,0 +1,27 @@
+package simpledb.file;
+
+/**
+ * The ways in which the file manager can make
+ * block writes durable.
+ */
+public enum Durability {
+   /**
+    * Every block write is synchronous, including
+    * the file's metadata. This is the slowest mode.
+    */
+   SYNC_EVERY_WRITE,
+
+   /**
+    * Block writes go to the operating system, and are
+    * forced to disk only when the log is flushed
+    * or when a transaction commits or rolls back.
+    */
+   SYNC_ON_COMMIT,
+
+   /**
+    * Block writes are never forced to disk.
+    * A crash can lose committed data, so this mode
+    * is only suitable for bulk loads and tests.
+    */
+   NO_SYNC
+}
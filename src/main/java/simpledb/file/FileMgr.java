@@ -1,7 +1,9 @@
 package simpledb.file;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The SimpleDB file manager.
@@ -13,13 +15,39 @@ import java.util.*;
  * The class also contains public methods to indicate whether the
  * file is new, to give the number of blocks in the file, and
  * to give the number of bytes in each block.
+ * The file manager is thread-safe, and does not serialize
+ * block I/O: each file is accessed with positional reads
+ * and writes, so concurrent buffer misses do not wait
+ * on one another.
+ * The number of OS file handles held open can be bounded;
+ * see {@link #setMaxOpenFiles(int)}.
  * @author Edward Sciore
  */
 public class FileMgr {
+   /**
+    * The file in the database directory that records
+    * the parameters the database was created with.
+    */
+   public static final String INFO_FILE = "simpledb.info";
+   public static final String WARM_FILE = "simpledb.warm"; // the buffer pool's blocks, saved at shutdown
+   /**
+    * The version of the on-disk format, recorded in the info file.
+    * Version 2 stores table records in slotted pages of
+    * variable-length records; databases of other versions,
+    * or with no recorded version, cannot be opened.
+    */
+   public static final int FORMAT_VERSION = 2;
+   public static final int MIN_BLOCK_SIZE = 4096, MAX_BLOCK_SIZE = 65536;
    private File dbDirectory;
    private int blocksize;
+   private Durability durability;
+   private int extentsize = 1;
    private boolean isNew;
-   private Map<String,RandomAccessFile> openFiles = new HashMap<>();
+   private Map<String,DbFile> openFiles = new ConcurrentHashMap<>();
+   private Set<String> mappedFiles = new HashSet<>();
+   private HandleCache handles = new HandleCache(Integer.MAX_VALUE);
+   private boolean compressTables = false;
+   private CompressionStats stats = new CompressionStats();
 
    /**
     * Creates a file manager for the specified database.
@@ -28,11 +56,26 @@ public class FileMgr {
     * then a folder containing an empty database is created 
     * automatically. Files for all temporary tables 
     * (i.e. tables beginning with "temp") are deleted.
+    * Every block write is synchronous.
     * @param dbname the name of the directory that holds the database
     */
    public FileMgr(File dbDirectory, int blocksize) {
+      this(dbDirectory, blocksize, Durability.SYNC_EVERY_WRITE);
+   }
+
+   /**
+    * Creates a file manager for the specified database,
+    * whose block writes are made durable as specified.
+    * The block size of a new database is recorded in its
+    * directory. When an existing database is opened,
+    * its recorded block size is used instead of the specified one.
+    * @param dbDirectory the directory that holds the database
+    * @param blocksize the number of bytes in each block
+    * @param durability when block writes are forced to disk
+    */
+   public FileMgr(File dbDirectory, int blocksize, Durability durability) {
       this.dbDirectory = dbDirectory;
-      this.blocksize = blocksize;
+      this.durability = durability;
       isNew = !dbDirectory.exists();
 
       // create the directory if the database is new
@@ -43,76 +86,290 @@ public class FileMgr {
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
          		new File(dbDirectory, filename).delete();
+
+      this.blocksize = recordedBlockSize(blocksize);
    }
 
    /**
     * Reads the contents of a disk block into a byte array.
+    * The read does not lock the file manager, so reads of
+    * different blocks can proceed concurrently.
+    * A file that does not exist is not opened,
+    * and the page is left unchanged.
     * @param blk a reference to a disk block
     * @param p  the page
     */
-   public synchronized void read(BlockId blk, Page p) {
+   public void read(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().read(p.contents());
+         DbFile f = getFile(blk.fileName(), false);
+         if (f != null)
+            f.read(blk.number(), p.contents());
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
+   /**
+    * Reads consecutive disk blocks into the specified pages,
+    * using a single scatter read.
+    * The first page receives the specified block,
+    * the second page the block after it, and so on.
+    * As with a single block, a file that does not exist is not opened.
+    * @param first a reference to the first disk block
+    * @param pages the pages, one per block
+    */
+   public void read(BlockId first, Page[] pages) {
+      try {
+         DbFile f = getFile(first.fileName(), false);
+         if (f == null)
+            return;
+         ByteBuffer[] bbs = new ByteBuffer[pages.length];
+         for (int i=0; i<pages.length; i++)
+            bbs[i] = pages[i].contents();
+         f.read(first.number(), bbs);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read blocks starting at " + first);
+      }
+   }
+
    /**
     * Writes the contents of a byte array into a disk block.
     * @param blk a reference to a disk block
     * @param p  the page
     */
-   public synchronized void write(BlockId blk, Page p) {
+   public void write(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().write(p.contents());
+         DbFile f = getFile(blk.fileName());
+         f.write(blk.number(), p.contents());
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
    }
 
+   /**
+    * Writes the specified pages to consecutive disk blocks,
+    * using a single gather write.
+    * The first page is written to the specified block,
+    * the second page to the block after it, and so on.
+    * @param first a reference to the first disk block
+    * @param pages the pages, one per block
+    */
+   public void write(BlockId first, Page[] pages) {
+      try {
+         DbFile f = getFile(first.fileName());
+         ByteBuffer[] bbs = new ByteBuffer[pages.length];
+         for (int i=0; i<pages.length; i++)
+            bbs[i] = pages[i].contents();
+         f.write(first.number(), bbs);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write blocks starting at " + first);
+      }
+   }
+
    /**
     * Appends an empty block to the end of the specified file.
+    * Appends to the same file are serialized;
+    * appends to different files are not.
     * @param filename the name of the file
     * @return a reference to the newly-created block.
     */
-   public synchronized BlockId append(String filename) {
-      int newblknum = length(filename);
-      BlockId blk = new BlockId(filename, newblknum);
-      byte[] b = new byte[blocksize];
+   public BlockId append(String filename) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.write(b);
+         DbFile f = getFile(filename);
+         return new BlockId(filename, f.append());
       }
       catch (IOException e) {
-         throw new RuntimeException("cannot append block" + blk);
+         throw new RuntimeException("cannot append block to " + filename);
       }
-
-      return blk;
    }
 
    /**
     * Returns the number of blocks in the specified file.
+    * A file that does not exist has no blocks, and is not opened.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
-   public synchronized int length(String filename) {
+   public int length(String filename) {
       try {
-         RandomAccessFile f = getFile(filename);
-         return (int)(f.length() / blocksize);
+         DbFile f = getFile(filename, false);
+         return (f == null) ? 0 : f.length();
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
 
+   /**
+    * Returns true if the specified file exists
+    * in the database directory.
+    * @param filename the name of the file
+    * @return true if the file exists
+    */
+   public boolean exists(String filename) {
+      return openFiles.containsKey(filename)
+            || new File(dbDirectory, filename).exists();
+   }
+
+   /**
+    * Returns the names of the files in the database directory
+    * whose names begin with the specified prefix.
+    * @param prefix the beginning of the file names
+    * @return the names of the matching files, in no particular order
+    */
+   public List<String> fileNames(String prefix) {
+      List<String> names = new ArrayList<>();
+      for (String filename : dbDirectory.list())
+         if (filename.startsWith(prefix))
+            names.add(filename);
+      return names;
+   }
+
+   /**
+    * Forces the previously-written blocks of the specified
+    * file to disk.
+    * The method does nothing unless the durability mode
+    * is SYNC_ON_COMMIT.
+    * A file that is not open has not been written, and so is not opened.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
+      try {
+         DbFile f = openFiles.get(filename);
+         if (f != null)
+            f.force();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot force " + filename);
+      }
+   }
+
+   /**
+    * Forces the previously-written blocks of every
+    * open file to disk.
+    * Only the files written since they were last forced
+    * incur a disk sync.
+    */
+   public void forceAll() {
+      for (String filename : openFiles.keySet())
+         force(filename);
+   }
+
+   /**
+    * Closes the specified file and deletes it from the database directory.
+    * It is used to discard temporary tables once the
+    * transaction that created them has finished.
+    * The file is deleted while holding the lock on the open files,
+    * so that a read that does not open missing files
+    * cannot reopen it in the meantime.
+    * @param filename the name of the file
+    */
+   public void delete(String filename) {
+      try {
+         synchronized (openFiles) {
+            DbFile f = openFiles.remove(filename);
+            if (f != null)
+               f.delete();
+            else {
+               new File(dbDirectory, filename).delete();
+               new File(dbDirectory, filename + CompressedFile.MAP_SUFFIX).delete();
+            }
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot delete " + filename);
+      }
+   }
+
+   /**
+    * Specifies the maximum number of files that are kept open.
+    * When the limit is reached, the least recently used file
+    * that no I/O is using is closed; it is reopened
+    * transparently when it is next accessed.
+    * @param maxfiles the maximum number of open files
+    */
+   public void setMaxOpenFiles(int maxfiles) {
+      handles.setCapacity(maxfiles);
+   }
+
+   /**
+    * Specifies the number of blocks by which files grow.
+    * An append that finds no preallocated block at the end
+    * of its file writes a whole extent of zeroed blocks,
+    * so the following appends to that file do no I/O.
+    * The setting applies to files opened after the call.
+    * @param extentsize the number of blocks in an extent
+    */
+   public void setExtentSize(int extentsize) {
+      this.extentsize = extentsize;
+   }
+
+   /**
+    * Specifies whether new table files (those whose name
+    * ends in ".tbl") should be stored compressed.
+    * Each page is compressed when it is written and
+    * decompressed when it is read, which trades CPU time
+    * for less I/O on tables whose pages are mostly padding.
+    * The setting applies to files created after the call;
+    * an existing file keeps the format it was created with.
+    * @param compress true if new table files should be compressed
+    */
+   public void setCompressTables(boolean compress) {
+      this.compressTables = compress;
+   }
+
+   /**
+    * Returns the ratio of the bytes of the pages written
+    * to compressed files to the bytes actually written.
+    * @return the compression ratio, or 1 if nothing has been compressed
+    */
+   public double compressionRatio() {
+      long compressed = stats.compressedBytes.get();
+      return (compressed == 0) ? 1.0 : (double) stats.rawBytes.get() / compressed;
+   }
+
+   /**
+    * Returns the CPU time spent compressing pages.
+    * @return the time in nanoseconds
+    */
+   public long compressionNanos() {
+      return stats.compressNanos.get();
+   }
+
+   /**
+    * Returns the CPU time spent decompressing pages.
+    * @return the time in nanoseconds
+    */
+   public long decompressionNanos() {
+      return stats.decompressNanos.get();
+   }
+
+   /**
+    * Specifies whether reads of the specified file should
+    * be served from a memory mapping of the file
+    * instead of from read calls.
+    * Mapping suits read-mostly files, such as the catalog
+    * tables and B-tree directories, because a buffer miss
+    * then costs only a copy out of the OS page cache.
+    * The mapping is extended as the file grows.
+    * @param filename the name of the file
+    * @param mapped true if the file should be mapped
+    */
+   public void setMapped(String filename, boolean mapped) {
+      synchronized (openFiles) {
+         if (mapped)
+            mappedFiles.add(filename);
+         else
+            mappedFiles.remove(filename);
+         DbFile f = openFiles.get(filename);
+         if (f != null)
+            f.setMapped(mapped);
+      }
+   }
+
    /**
     * Returns a boolean indicating whether the file manager
     * had to create a new database directory.
@@ -135,13 +392,171 @@ public class FileMgr {
     * @return the associated open file.
     * @throws IOException
     */
-   private RandomAccessFile getFile(String filename) throws IOException {
-      RandomAccessFile f = openFiles.get(filename);
+   private DbFile getFile(String filename) throws IOException {
+      return getFile(filename, true);
+   }
+
+   /**
+    * Returns the file for the specified filename,
+    * opening it if necessary.
+    * A file that does not exist is only opened if specified;
+    * reads open it only when it exists, so that they do not
+    * bring back a file that has been deleted.
+    * @param filename the specified filename
+    * @param create true if a file that does not exist should be opened
+    * @return the associated open file, or null if it does not exist
+    *         and should not be opened
+    * @throws IOException
+    */
+   private DbFile getFile(String filename, boolean create) throws IOException {
+      DbFile f = openFiles.get(filename);
       if (f == null) {
-         File dbTable = new File(dbDirectory, filename);
-         f = new RandomAccessFile(dbTable, "rws");
-         openFiles.put(filename, f);
+         synchronized (openFiles) {
+            f = openFiles.get(filename);
+            if (f == null) {
+               File dbTable = new File(dbDirectory, filename);
+               if (!create && !dbTable.exists()
+                     && !new File(dbDirectory, filename + CompressedFile.MAP_SUFFIX).exists())
+                  return null;
+               if (isCompressed(filename, dbTable))
+                  f = new CompressedFile(dbTable, blocksize, durability, handles, stats);
+               else
+                  f = new DbFile(dbTable, blocksize, durability, extentsize, handles);
+               f.setMapped(mappedFiles.contains(filename));
+               openFiles.put(filename, f);
+            }
+         }
       }
       return f;
    }
+
+   /**
+    * Determines the format of the specified file.
+    * A file with a translation map is compressed;
+    * a new table file is compressed if compression is on;
+    * any other file is not.
+    */
+   private boolean isCompressed(String filename, File dbTable) {
+      if (new File(dbDirectory, filename + CompressedFile.MAP_SUFFIX).exists())
+         return true;
+      return compressTables && filename.endsWith(".tbl") && !dbTable.exists();
+   }
+
+   /**
+    * Checks that the block size is a power of two
+    * from MIN_BLOCK_SIZE to MAX_BLOCK_SIZE, as the block size
+    * of a database opened by {@link simpledb.server.SimpleDB#SimpleDB(String)} must be.
+    * Databases created for debugging may have any block size.
+    * @param blocksize the block size
+    * @return the block size
+    */
+   public static int checkBlockSize(int blocksize) {
+      if (blocksize < MIN_BLOCK_SIZE || blocksize > MAX_BLOCK_SIZE
+            || Integer.bitCount(blocksize) != 1)
+         throw new IllegalArgumentException("block size must be a power of two from "
+               + MIN_BLOCK_SIZE + " to " + MAX_BLOCK_SIZE + ": " + blocksize);
+      return blocksize;
+   }
+
+   /**
+    * Returns the block size recorded in the info file
+    * of the specified database directory, without opening
+    * the database, or 0 if there is no info file.
+    * @param dbDirectory the directory that holds the database
+    * @return the recorded block size, or 0
+    */
+   public static int recordedBlockSize(File dbDirectory) {
+      File info = new File(dbDirectory, INFO_FILE);
+      if (!info.exists())
+         return 0;
+      try {
+         return Integer.parseInt(readInfo(info).getProperty("blocksize", "0"));
+      }
+      catch (NumberFormatException e) {
+         throw new RuntimeException("cannot read " + info);
+      }
+   }
+
+   /**
+    * Returns the block size recorded in the database's info file,
+    * after checking that the database has the current on-disk format,
+    * and that the recorded size is consistent with its files.
+    * A new database, whose directory is empty, gets the
+    * specified size, which is recorded together with the format version.
+    * A database that has files but no info file is refused,
+    * since its block size and format are unknown.
+    * @param blocksize the block size to use for a new database
+    * @return the database's block size
+    */
+   private int recordedBlockSize(int blocksize) {
+      File info = new File(dbDirectory, INFO_FILE);
+      try {
+         if (info.exists()) {
+            Properties props = readInfo(info);
+            checkFormat(props.getProperty("format"));
+            blocksize = Integer.parseInt(props.getProperty("blocksize"));
+            checkFileLengths(blocksize);
+         }
+         else {
+            if (dbDirectory.list().length > 0)
+               throw new RuntimeException("database " + dbDirectory + " has no " + INFO_FILE
+                     + ", so its block size and format are unknown");
+            if (blocksize <= 0)
+               throw new RuntimeException("invalid block size " + blocksize);
+            Properties props = new Properties();
+            props.setProperty("blocksize", Integer.toString(blocksize));
+            props.setProperty("format", Integer.toString(FORMAT_VERSION));
+            try (OutputStream out = new FileOutputStream(info)) {
+               props.store(out, "SimpleDB database parameters");
+            }
+         }
+         return blocksize;
+      }
+      catch (IOException | NumberFormatException e) {
+         throw new RuntimeException("cannot read " + info);
+      }
+   }
+
+   private static Properties readInfo(File info) {
+      Properties props = new Properties();
+      try (InputStream in = new FileInputStream(info)) {
+         props.load(in);
+         return props;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + info);
+      }
+   }
+
+   /**
+    * Checks that the recorded format version is the current one.
+    * @param format the recorded version, or null if none is recorded
+    */
+   private void checkFormat(String format) {
+      if (format == null)
+         throw new RuntimeException("database " + dbDirectory
+               + " has no on-disk format version; it predates format "
+               + FORMAT_VERSION + " and must be recreated");
+      if (!format.equals(Integer.toString(FORMAT_VERSION)))
+         throw new RuntimeException("database " + dbDirectory + " has on-disk format "
+               + format + ", but format " + FORMAT_VERSION + " is required");
+   }
+
+   /**
+    * Checks that the block size is consistent with the
+    * sizes of the database's files, which must all be a whole
+    * number of blocks (except for the data of compressed files).
+    */
+   private void checkFileLengths(int blocksize) {
+      if (blocksize <= 0)
+         throw new RuntimeException("invalid block size " + blocksize);
+      for (String filename : dbDirectory.list()) {
+         File f = new File(dbDirectory, filename);
+         if (filename.equals(INFO_FILE) || filename.startsWith(WARM_FILE)
+               || new File(dbDirectory, filename + CompressedFile.MAP_SUFFIX).exists())
+            continue;
+         if (f.length() % blocksize != 0)
+            throw new RuntimeException("file " + filename + " does not match block size " + blocksize);
+      }
+   }
 }
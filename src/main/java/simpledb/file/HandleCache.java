@@ -0,0 +1,74 @@
+package simpledb.file;
+
+import java.util.*;
+
+/**
+ * Limits the number of database files that have an open OS handle.
+ * When a file is opened and the limit is exceeded,
+ * the handles of the least recently used idle files are closed.
+ * Files that are in the middle of an I/O operation are never closed,
+ * so the limit can be exceeded briefly when many files are busy.
+ */
+class HandleCache {
+   private int capacity;
+   private Set<DbFile> open = new HashSet<>();
+
+   /**
+    * Creates a cache that keeps at most the specified
+    * number of files open.
+    * @param capacity the maximum number of open files
+    */
+   HandleCache(int capacity) {
+      this.capacity = capacity;
+   }
+
+   /**
+    * Changes the maximum number of open files,
+    * closing files if there are now too many.
+    * @param capacity the maximum number of open files
+    */
+   synchronized void setCapacity(int capacity) {
+      this.capacity = Math.max(capacity, 1);
+      evict(null);
+   }
+
+   /**
+    * Records that the specified file has opened its handle.
+    * @param f the file that was opened
+    */
+   synchronized void opened(DbFile f) {
+      open.add(f);
+      evict(f);
+   }
+
+   /**
+    * Records that the specified file has closed its handle
+    * for a reason other than eviction.
+    * @param f the file that was closed
+    */
+   synchronized void closed(DbFile f) {
+      open.remove(f);
+   }
+
+   /**
+    * Returns the number of files whose handle is open.
+    * @return the number of open files
+    */
+   synchronized int size() {
+      return open.size();
+   }
+
+   private void evict(DbFile keep) {
+      if (open.size() <= capacity)
+         return;
+      List<DbFile> victims = new ArrayList<>(open);
+      victims.remove(keep);
+      victims.sort((f1, f2) -> Long.compare(f1.lastUsed(), f2.lastUsed()));
+      for (DbFile f : victims) {
+         if (open.size() <= capacity)
+            return;
+         if (f.closeIfIdle())
+            open.remove(f);
+      }
+   }
+}
@@ -0,0 +1,136 @@
+package simpledb.file;
+
+/**
+ * A small LZ77 codec for page images, in the style of LZ4.
+ * The compressed form is a sequence of tokens, each consisting of
+ * a run of literal bytes followed by a back reference
+ * (offset and length) to bytes already decoded.
+ * The last token has literals only.
+ * <P>
+ * The codec favours speed over ratio: it finds matches
+ * through a hash table of 4-byte sequences and never searches further.
+ * Long runs of a repeated byte, such as the zero padding
+ * of a page, encode as a single overlapping match.
+ */
+class LZCodec {
+   private static final int MIN_MATCH = 4;
+   private static final int HASH_LOG = 12;
+   private static final int MAX_OFFSET = 0xFFFF;
+
+   private LZCodec() {}
+
+   /**
+    * Returns the size of the largest possible compressed form
+    * of the specified number of bytes.
+    * @param len the number of bytes to compress
+    * @return the size that a destination array needs
+    */
+   static int maxCompressedLength(int len) {
+      return len + len / 255 + 16;
+   }
+
+   /**
+    * Compresses the first len bytes of src into dst.
+    * @param src the bytes to compress
+    * @param len the number of bytes to compress
+    * @param dst the destination, of at least maxCompressedLength(len) bytes
+    * @return the number of compressed bytes
+    */
+   static int compress(byte[] src, int len, byte[] dst) {
+      int[] table = new int[1 << HASH_LOG];  // position+1 of the last sequence with each hash
+      int sp = 0, anchor = 0, dp = 0;
+      while (sp + MIN_MATCH <= len) {
+         int seq = readInt(src, sp);
+         int h = hash(seq);
+         int ref = table[h] - 1;
+         table[h] = sp + 1;
+         if (ref >= 0 && sp - ref <= MAX_OFFSET && readInt(src, ref) == seq) {
+            int mlen = MIN_MATCH;
+            while (sp + mlen < len && src[ref + mlen] == src[sp + mlen])
+               mlen++;
+            dp = writeToken(src, anchor, sp - anchor, sp - ref, mlen, dst, dp);
+            sp += mlen;
+            anchor = sp;
+         }
+         else
+            sp++;
+      }
+      return writeToken(src, anchor, len - anchor, 0, 0, dst, dp);
+   }
+
+   /**
+    * Decompresses the first srclen bytes of src into dst.
+    * @param src the compressed bytes
+    * @param srclen the number of compressed bytes
+    * @param dst the destination
+    * @return the number of decompressed bytes
+    */
+   static int decompress(byte[] src, int srclen, byte[] dst) {
+      int sp = 0, dp = 0;
+      while (sp < srclen) {
+         int token = src[sp++] & 0xFF;
+         int lit = token >>> 4;
+         if (lit == 15) {
+            int b;
+            do {
+               b = src[sp++] & 0xFF;
+               lit += b;
+            } while (b == 255);
+         }
+         System.arraycopy(src, sp, dst, dp, lit);
+         sp += lit;
+         dp += lit;
+         if (sp >= srclen)
+            break;
+         int offset = (src[sp++] & 0xFF) | ((src[sp++] & 0xFF) << 8);
+         int mlen = token & 15;
+         if (mlen == 15) {
+            int b;
+            do {
+               b = src[sp++] & 0xFF;
+               mlen += b;
+            } while (b == 255);
+         }
+         mlen += MIN_MATCH;
+         int ref = dp - offset;
+         for (int i=0; i<mlen; i++)  // byte by byte, since the match may overlap
+            dst[dp++] = dst[ref++];
+      }
+      return dp;
+   }
+
+   private static int writeToken(byte[] src, int litpos, int lit, int offset, int mlen,
+                                 byte[] dst, int dp) {
+      int mcode = (mlen == 0) ? 0 : mlen - MIN_MATCH;
+      dst[dp++] = (byte) ((Math.min(lit, 15) << 4) | Math.min(mcode, 15));
+      if (lit >= 15)
+         dp = writeLength(lit - 15, dst, dp);
+      System.arraycopy(src, litpos, dst, dp, lit);
+      dp += lit;
+      if (mlen == 0)
+         return dp;
+      dst[dp++] = (byte) offset;
+      dst[dp++] = (byte) (offset >>> 8);
+      if (mcode >= 15)
+         dp = writeLength(mcode - 15, dst, dp);
+      return dp;
+   }
+
+   private static int writeLength(int n, byte[] dst, int dp) {
+      while (n >= 255) {
+         dst[dp++] = (byte) 255;
+         n -= 255;
+      }
+      dst[dp++] = (byte) n;
+      return dp;
+   }
+
+   private static int readInt(byte[] b, int pos) {
+      return (b[pos] & 0xFF) | (b[pos+1] & 0xFF) << 8
+           | (b[pos+2] & 0xFF) << 16 | (b[pos+3] & 0xFF) << 24;
+   }
+
+   private static int hash(int seq) {
+      return (seq * -1640531535) >>> (32 - HASH_LOG);
+   }
+}
@@ -16,7 +16,7 @@ public class Page {
       bb = ByteBuffer.wrap(b);
    }
 
-   public static Charset CHARSET = StandardCharsets.US_ASCII;
+   public static Charset CHARSET = StandardCharsets.UTF_8;
 
    public int getInt(int offset) {
       return bb.getInt(offset);
@@ -40,6 +40,32 @@ public class Page {
       bb.put(b);
    }
    
+   /**
+    * Returns the specified number of bytes
+    * starting at the offset. Unlike getBytes,
+    * the bytes have no length prefix.
+    * @param offset the offset of the first byte
+    * @param length the number of bytes
+    * @return the bytes
+    */
+   public byte[] readBytes(int offset, int length) {
+      byte[] b = new byte[length];
+      bb.position(offset);
+      bb.get(b);
+      return b;
+   }
+
+   /**
+    * Writes the bytes starting at the offset,
+    * without a length prefix.
+    * @param offset the offset of the first byte
+    * @param b the bytes
+    */
+   public void writeBytes(int offset, byte[] b) {
+      bb.position(offset);
+      bb.put(b);
+   }
+   
    public String getString(int offset) {
       byte[] b = getBytes(offset);
       return new String(b, CHARSET);
@@ -0,0 +1,89 @@
+package simpledb.log;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.Durability;
+
+/**
+ * Measures the commit throughput of the log manager
+ * for an increasing number of threads, each of which
+ * repeatedly appends a small record and flushes the log
+ * up to it, as a committing transaction does.
+ * With group commit the throughput should grow with the
+ * number of threads, since one write of the log page
+ * serves all the threads waiting for it.
+ * The benchmark is run without and with a group commit wait.
+ * It also measures the rate at which records can be appended
+ * when no one waits for them, which the log writer's
+ * multi-block writes should make close to the disk's bandwidth,
+ * and the rate at which threads can append concurrently,
+ * which no longer go through a common lock.
+ */
+public class GroupCommitBenchmark {
+   private static final int COMMITS = 2000;  // per thread
+   private static final int MAX_THREADS = 16;
+   private static final int RECORDS = 200000;
+   private static final int RECORD_SIZE = 100;
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB.DURABILITY = Durability.SYNC_ON_COMMIT;
+      SimpleDB db = new SimpleDB("groupcommitbenchmark", 4096, 8);
+      LogMgr lm = db.logMgr();
+      byte[] rec = new byte[RECORD_SIZE];
+      long start = System.nanoTime();
+      long lsn = 0;
+      for (int i=0; i<RECORDS; i++)
+         lsn = lm.append(rec);
+      lm.flush(lsn);
+      long elapsed = System.nanoTime() - start;
+      System.out.printf("appends: %,.1f MB per second%n",
+                        (double) RECORDS * RECORD_SIZE * 1e3 / elapsed);
+      for (int threads=1; threads<=MAX_THREADS; threads*=2)
+         System.out.printf("%2d thread(s): %,.0f appends per second%n",
+                           threads, appends(lm, threads));
+      for (long wait : new long[] {0, 100}) {
+         lm.setGroupCommitWait(wait);
+         for (int threads=1; threads<=MAX_THREADS; threads*=2) {
+            int[] before = lm.flushStats();
+            double rate = run(lm, threads);
+            int[] after = lm.flushStats();
+            double group = (double) (after[0] - before[0]) / (after[1] - before[1]);
+            System.out.printf("wait %3d us, %2d thread(s): %,.0f commits per second, %.1f per flush%n",
+                              wait, threads, rate, group);
+         }
+      }
+   }
+
+   private static double appends(LogMgr lm, int threads) throws InterruptedException {
+      Thread[] workers = new Thread[threads];
+      for (int t=0; t<threads; t++)
+         workers[t] = new Thread(() -> {
+            byte[] rec = new byte[32];
+            for (int i=0; i<RECORDS/threads; i++)
+               lm.append(rec);
+         });
+      long start = System.nanoTime();
+      for (Thread w : workers)
+         w.start();
+      for (Thread w : workers)
+         w.join();
+      long elapsed = System.nanoTime() - start;
+      return (double) (RECORDS/threads) * threads * 1e9 / elapsed;
+   }
+
+   private static double run(LogMgr lm, int threads) throws InterruptedException {
+      Thread[] workers = new Thread[threads];
+      for (int t=0; t<threads; t++)
+         workers[t] = new Thread(() -> {
+            byte[] rec = new byte[32];
+            for (int i=0; i<COMMITS; i++)
+               lm.flush(lm.append(rec));
+         });
+      long start = System.nanoTime();
+      for (Thread w : workers)
+         w.start();
+      for (Thread w : workers)
+         w.join();
+      long elapsed = System.nanoTime() - start;
+      return (double) threads * COMMITS * 1e9 / elapsed;
+   }
+}
@@ -5,13 +5,17 @@ import simpledb.file.*;
 
 /**
  * A class that provides the ability to move through the
- * records of the log file in reverse order.
+ * records of the log in reverse order.
+ * The iterator moves back through the blocks of the log,
+ * from segment to segment, and stops at the first block
+ * of the oldest segment.
  * 
  * @author Edward Sciore
  */
 class LogIterator implements Iterator<byte[]> {
    private FileMgr fm;
-   private BlockId blk;
+   private LogMgr lm;
+   private long blknum;
    private Page p;
    private int currentpos;
    private int boundary;
@@ -20,12 +24,13 @@ class LogIterator implements Iterator<byte[]> {
     * Creates an iterator for the records in the log file,
     * positioned after the last log record.
     */
-   public LogIterator(FileMgr fm, BlockId blk) {
+   public LogIterator(FileMgr fm, LogMgr lm, long blknum) {
       this.fm = fm;
-      this.blk = blk;
+      this.lm = lm;
+      this.blknum = blknum;
       byte[] b = new byte[fm.blockSize()];
       p = new Page(b);
-      moveToBlock(blk);
+      moveToBlock(blknum);
    }
 
    /**
@@ -34,7 +39,7 @@ class LogIterator implements Iterator<byte[]> {
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentpos<fm.blockSize() || blk.number()>0;
+      return currentpos<fm.blockSize() || blknum>lm.firstBlock();
    }
 
    /**
@@ -46,8 +51,8 @@ class LogIterator implements Iterator<byte[]> {
     */
    public byte[] next() {
       if (currentpos == fm.blockSize()) {
-         blk = new BlockId(blk.fileName(), blk.number()-1);
-         moveToBlock(blk);
+         blknum--;
+         moveToBlock(blknum);
       }
       byte[] rec = p.getBytes(currentpos);
       currentpos += Integer.BYTES + rec.length;
@@ -59,8 +64,8 @@ class LogIterator implements Iterator<byte[]> {
     * and positions it at the first record in that block
     * (i.e., the most recent one).
     */
-   private void moveToBlock(BlockId blk) {
-      fm.read(blk, p);
+   private void moveToBlock(long blknum) {
+      fm.read(lm.blockId(blknum), p);
       boundary = p.getInt(0);
       currentpos = boundary;
    }
@@ -1,104 +1,547 @@
 package simpledb.log;
 
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import simpledb.file.*;
 
 /**
- * The log manager, which is responsible for 
- * writing log records into a log file. The tail of 
- * the log is kept in a bytebuffer, which is flushed
- * to disk when needed. 
+ * The log manager, which is responsible for
+ * writing log records into the log. The tail of
+ * the log is kept in a ring of pages, which are
+ * written to disk by a log-writer thread.
+ * <P>
+ * The log is a sequence of blocks, stored in segment files
+ * of a fixed number of blocks each: segment <i>n</i> of the
+ * log "simpledb.log" is the file "simpledb.log.<i>n</i>".
+ * The LSN of a record is its byte offset in the log, counting
+ * the bytes of a block from its end, since records are written
+ * right to left; LSNs thus follow the order of the records,
+ * and stay the same across restarts.
+ * Once the records of the oldest segments are no longer needed,
+ * {@link #truncate(long)} deletes those segments.
+ * The log manager keeps the LSNs of the START records of its
+ * active transactions, so that when a transaction finishes,
+ * the log can be truncated up to the oldest of them.
+ * <P>
+ * The pages of the ring hold consecutive blocks of the log.
+ * Appenders do not lock the log manager: an appender reserves
+ * the space for its record in the current page by a
+ * compare-and-set of the page's state, and then copies the record
+ * into that space in parallel with the other appenders.
+ * The state of a page packs its boundary, the number of
+ * copies still in progress, and whether the page is sealed.
+ * An appender whose record does not fit seals the page,
+ * and moves the log on to the next page of the ring;
+ * appenders only wait while this happens,
+ * or if the ring is full of pages not yet written.
+ * <P>
+ * The writer writes all the sealed pages not yet written,
+ * together with a copy of the current page when a flush
+ * has been asked for, with one sequential write per segment,
+ * and forces the log once. A page is only written once
+ * no copies into it are in progress; the saved LSN is
+ * then the durable-LSN watermark, which anyone can read
+ * without locking, and which a flush checks before asking the writer.
+ * <P>
+ * Flushes are done by group commit:
+ * a thread that needs the log flushed asks the writer
+ * and waits until the log is saved up to its LSN,
+ * so all the threads asking while the writer is busy
+ * are served by its next write.
+ * The writer can also wait a little before writing,
+ * for more committers to join the group.
  * @author Edward Sciore
  */
-public class LogMgr {
+public class LogMgr implements Runnable {
+   // the fields of a page's state
+   private static final long BOUNDARY_MASK = 0x1FFFF;
+   private static final int PENDING_SHIFT = 32, PENDING_MASK = 0xFFFF;
+   private static final long PENDING_ONE = 1L << PENDING_SHIFT;
+   private static final long SEALED = 1L << 48;
+
    private FileMgr fm;
    private String logfile;
-   private Page logpage;
-   private BlockId currentblk;
-   private int latestLSN = 0;
-   private int lastSavedLSN = 0;
+   private int blocksize;
+   private int segmentsize;            // the number of blocks of a segment
+   private LogPage[] ring;
+   private volatile LogPage current;   // the page being appended to
+   private volatile long unwrittenblk; // the first block whose page has not been written in full
+   private volatile long firstblk;     // the first block of the oldest segment
+   private volatile long lastSavedLSN;
+   private long requestedLSN = 0;
+   private volatile long groupWaitNanos = 0;
+   private int flushRequests = 0, groupFlushes = 0;
+   private volatile RuntimeException failure = null;
+   private Map<Integer,Long> startLSNs = new HashMap<>(); // of the active transactions
 
    /**
-    * Creates the manager for the specified log file.
-    * If the log file does not yet exist, it is created
-    * with an empty first block.
+    * A page of the ring, together with the block
+    * of the log that it holds, and its state.
+    */
+   private static class LogPage {
+      byte[] bytes;
+      ByteBuffer bb;
+      Page page;
+      long blknum;
+      AtomicLong state = new AtomicLong();
+
+      LogPage(int blocksize) {
+         bytes = new byte[blocksize];
+         bb = ByteBuffer.wrap(bytes);
+         page = new Page(bytes);
+      }
+
+      void reset(long blknum, int boundary) {
+         this.blknum = blknum;
+         state.set(boundary);
+      }
+   }
+
+   /**
+    * Creates the manager for the specified log,
+    * with a ring of 8 pages and segments of 1024 blocks.
     * @param FileMgr the file manager
-    * @param logfile the name of the log file
+    * @param logfile the name of the log
     */
    public LogMgr(FileMgr fm, String logfile) {
+      this(fm, logfile, 8, 1024);
+   }
+
+   /**
+    * Creates the manager for the specified log,
+    * and starts its log-writer thread.
+    * If the log does not yet exist, its first segment is created
+    * with an empty first block.
+    * A log kept in a single file by an earlier version
+    * is first copied into segments.
+    * The segment size must not change for an existing log.
+    * @param FileMgr the file manager
+    * @param logfile the name of the log
+    * @param numpages the number of pages of the ring
+    * @param segmentsize the number of blocks of a segment
+    */
+   public LogMgr(FileMgr fm, String logfile, int numpages, int segmentsize) {
+      if (segmentsize < 1)
+         throw new IllegalArgumentException("invalid log segment size: " + segmentsize);
       this.fm = fm;
       this.logfile = logfile;
-      byte[] b = new byte[fm.blockSize()];
-      logpage = new Page(b);
-      int logsize = fm.length(logfile);
-      if (logsize == 0)
-         currentblk = appendNewBlock();
+      this.blocksize = fm.blockSize();
+      this.segmentsize = segmentsize;
+      ring = new LogPage[Math.max(numpages, 2)];
+      for (int i=0; i<ring.length; i++)
+         ring[i] = new LogPage(blocksize);
+      if (fm.exists(logfile))
+         splitIntoSegments();
+      List<Long> segments = segments();
+      long blknum;
+      if (segments.isEmpty()) {
+         blknum = 0;
+         slot(blknum).page.setInt(0, blocksize);
+         fm.write(blockId(blknum), slot(blknum).page);
+         firstblk = 0;
+      }
       else {
-         currentblk = new BlockId(logfile, logsize-1);
-         fm.read(currentblk, logpage);
+         long first = segments.get(0), last = segments.get(segments.size()-1);
+         int length = fm.length(segmentName(last));
+         if (length > segmentsize)
+            throw new RuntimeException("log segment " + segmentName(last)
+                  + " is larger than " + segmentsize + " blocks");
+         blknum = last * segmentsize + Math.max(length, 1) - 1;
+         if (length == 0) {
+            slot(blknum).page.setInt(0, blocksize);
+            fm.write(blockId(blknum), slot(blknum).page);
+         }
+         else
+            fm.read(blockId(blknum), slot(blknum).page);
+         firstblk = first * segmentsize;
       }
+      LogPage lp = slot(blknum);
+      lp.reset(blknum, lp.page.getInt(0));
+      current = lp;
+      unwrittenblk = blknum;
+      lastSavedLSN = lsn(blknum, lp.page.getInt(0));
+      Thread t = new Thread(this, "simpledb-logwriter");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   /**
+    * Sets how long the writer waits for more committers
+    * before flushing the log.
+    * A longer wait forces the log fewer times
+    * when there are many concurrent committers,
+    * but delays every commit by that much.
+    * @param micros the wait in microseconds, or 0 not to wait
+    */
+   public void setGroupCommitWait(long micros) {
+      groupWaitNanos = TimeUnit.MICROSECONDS.toNanos(micros);
    }
 
    /**
     * Ensures that the log record corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * If the record is not yet durable, the method asks
+    * the log writer for the flush, and waits until
+    * the log is saved up to the record.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= lastSavedLSN)
-         flush();
+   public void flush(long lsn) {
+      if (lsn <= lastSavedLSN)
+         return;
+      synchronized (this) {
+         flushRequests++;
+         if (lsn > requestedLSN) {
+            requestedLSN = lsn;
+            notifyAll();
+         }
+         while (lsn > lastSavedLSN) {
+            if (failure != null)
+               throw failure;
+            waitForWriter();
+         }
+      }
+   }
+
+   /**
+    * Returns the LSN up to which the log is on disk.
+    * Every record with this LSN or a smaller one is durable.
+    * @return the durable LSN
+    */
+   public long durableLSN() {
+      return lastSavedLSN;
    }
 
    public Iterator<byte[]> iterator() {
-      flush();
-      return new LogIterator(fm, currentblk);
+      LogPage lp = current;
+      long blknum = lp.blknum;
+      flush(lsn(blknum, boundary(lp.state.get())));
+      return new LogIterator(fm, this, blknum);
    }
 
    /**
-    * Appends a log record to the log buffer. 
-    * The record consists of an arbitrary array of bytes. 
+    * Appends the START record of a transaction,
+    * and records the transaction as active.
+    * Starts are serialized with {@link #finished(int, long)},
+    * so a finishing transaction either sees the new
+    * transaction, or truncates the log before its START record.
+    * @param txnum the id of the transaction
+    * @param logrec the START record
+    * @return the LSN of the record
+    */
+   public long appendStart(int txnum, byte[] logrec) {
+      synchronized (startLSNs) {
+         long lsn = append(logrec);
+         startLSNs.put(txnum, lsn);
+         return lsn;
+      }
+   }
+
+   /**
+    * Records that the transaction has finished, and truncates
+    * the log up to the START record of the oldest active transaction,
+    * or up to the transaction's last record if none is active.
+    * Since a transaction flushes its buffers before it finishes,
+    * recovery and rollback only need the records of the
+    * transactions that are still active.
+    * @param txnum the id of the transaction
+    * @param lsn the LSN of the transaction's last log record
+    */
+   public void finished(int txnum, long lsn) {
+      long oldest = lsn;
+      synchronized (startLSNs) {
+         startLSNs.remove(txnum);
+         for (long start : startLSNs.values())
+            oldest = Math.min(oldest, start);
+      }
+      truncate(oldest);
+   }
+
+   /**
+    * Deletes the segments that only hold records
+    * before the specified LSN.
+    * The caller guarantees that those records
+    * are no longer needed, for rollback or for recovery.
+    * Segments with blocks not yet written are kept.
+    * @param lsn the LSN of the oldest record still needed
+    */
+   public void truncate(long lsn) {
+      if (lsn <= 0)
+         return;
+      long first, keep;
+      synchronized (this) {
+         long blknum = Math.min((lsn - 1) / blocksize, unwrittenblk);
+         keep = blknum / segmentsize;  // the oldest segment to keep
+         first = firstblk / segmentsize;
+         if (first >= keep)
+            return;
+         firstblk = keep * segmentsize;  // iterators stop there from now on
+      }
+      for (long seg=first; seg<keep; seg++)
+         fm.delete(segmentName(seg));
+   }
+
+   /**
+    * Returns the number of segment files of the log.
+    * @return the number of segments
+    */
+   public int segmentCount() {
+      return (int) (current.blknum / segmentsize - firstblk / segmentsize) + 1;
+   }
+
+   /**
+    * Returns the number of flush requests that had to wait for
+    * the writer, and the number of times the log was written for them;
+    * the ratio is the average size of a commit group.
+    * @return the two counts, in that order
+    */
+   public synchronized int[] flushStats() {
+      return new int[] {flushRequests, groupFlushes};
+   }
+
+   /**
+    * Appends a log record to the log buffer.
+    * The record consists of an arbitrary array of bytes.
     * Log records are written right to left in the buffer.
     * The size of the record is written before the bytes.
     * The beginning of the buffer contains the location
-    * of the last-written record (the "boundary").
+    * of the last-written record (the "boundary"),
+    * which the writer sets when it writes the page.
     * Storing the records backwards makes it easy to read
     * them in reverse order.
     * @param logrec a byte buffer containing the bytes.
     * @return the LSN of the final value
     */
-   public synchronized int append(byte[] logrec) {
-      int boundary = logpage.getInt(0);
-      int recsize = logrec.length;
-      int bytesneeded = recsize + Integer.BYTES;
-      if (boundary - bytesneeded < Integer.BYTES) { // the log record doesn't fit,
-         flush();        // so move to the next block.
-         currentblk = appendNewBlock();
-         boundary = logpage.getInt(0);
+   public long append(byte[] logrec) {
+      int bytesneeded = logrec.length + Integer.BYTES;
+      if (bytesneeded > blocksize - Integer.BYTES)
+         throw new IllegalArgumentException("log record too large: " + logrec.length);
+      while (true) {
+         LogPage lp = current;
+         long s = lp.state.get();
+         if ((s & SEALED) != 0) {  // another appender is moving to the next page
+            waitForNextPage(lp);
+            continue;
+         }
+         int boundary = boundary(s);
+         if (boundary - bytesneeded < Integer.BYTES) { // the log record doesn't fit,
+            if (lp.state.compareAndSet(s, s | SEALED)) // so move to the next block.
+               moveToNextPage(lp);
+            continue;
+         }
+         int recpos = boundary - bytesneeded;
+         if (!lp.state.compareAndSet(s, s - bytesneeded + PENDING_ONE))
+            continue;
+         long lsn = lsn(lp.blknum, recpos);
+         lp.bb.putInt(recpos, logrec.length);
+         System.arraycopy(logrec, 0, lp.bytes, recpos + Integer.BYTES, logrec.length);
+         lp.state.addAndGet(-PENDING_ONE);
+         return lsn;
+      }
+   }
+
+   /**
+    * Writes the log pages, for as long as the log manager exists.
+    * The writer sleeps until a page is sealed or a flush is asked for.
+    */
+   public void run() {
+      while (true) {
+         synchronized (this) {
+            while (unwrittenblk == current.blknum && requestedLSN <= lastSavedLSN)
+               waitForWriter();
+         }
+         if (groupWaitNanos > 0)
+            LockSupport.parkNanos(groupWaitNanos);  // let the group gather
+         try {
+            writePages();
+         }
+         catch (RuntimeException e) {
+            synchronized (this) {
+               failure = e;
+               notifyAll();
+            }
+            return;
+         }
+      }
+   }
+
+   /**
+    * Returns the block of the log with the specified number,
+    * which is a block of the segment that holds it.
+    */
+   BlockId blockId(long blknum) {
+      return new BlockId(segmentName(blknum / segmentsize), (int) (blknum % segmentsize));
+   }
+
+   /**
+    * Returns the number of the first block of the log
+    * that has not been truncated.
+    */
+   long firstBlock() {
+      return firstblk;
+   }
+
+   /**
+    * Moves the log from the sealed page to the next page of the ring,
+    * which begins a new block, waiting for the writer if the ring is full.
+    * Only the appender that sealed the page calls this method.
+    * @param lp the sealed page
+    */
+   private synchronized void moveToNextPage(LogPage lp) {
+      long nextblk = lp.blknum + 1;
+      notifyAll();  // the page is full
+      while (nextblk - unwrittenblk >= ring.length) {
+         if (failure != null)
+            throw failure;
+         waitForWriter();
+      }
+      LogPage next = slot(nextblk);
+      next.page.setInt(0, blocksize);
+      next.reset(nextblk, blocksize);
+      current = next;
+      notifyAll();
+   }
+
+   private synchronized void waitForNextPage(LogPage lp) {
+      while (current == lp) {
+         if (failure != null)
+            throw failure;
+         waitForWriter();
+      }
+   }
+
+   /**
+    * Writes the sealed pages not yet written, and also
+    * a copy of the current page if a flush was asked for,
+    * with one sequential write per segment, and forces the log.
+    * A page is written once the copies into it are done,
+    * with its boundary set from its state.
+    */
+   private void writePages() {
+      LogPage cur = current;
+      long first = unwrittenblk;
+      long lastblk = cur.blknum;
+      boolean withCurrent;
+      synchronized (this) {
+         withCurrent = requestedLSN > lastSavedLSN;
       }
-      int recpos = boundary - bytesneeded;
+      int count = (int) (lastblk - first) + (withCurrent ? 1 : 0);
+      Page[] pages = new Page[count];
+      for (long blknum=first; blknum<lastblk; blknum++) {
+         LogPage lp = slot(blknum);
+         long s = awaitCopies(lp);
+         lp.page.setInt(0, boundary(s));
+         pages[(int) (blknum - first)] = lp.page;
+      }
+      long lsn = lsn(lastblk, blocksize);  // the last record of the sealed pages
+      if (withCurrent) {
+         long s = awaitCopies(cur);
+         Page copy = new Page(cur.bytes.clone());
+         copy.setInt(0, boundary(s));
+         pages[count-1] = copy;
+         lsn = lsn(lastblk, boundary(s));
+      }
+      for (int i=0; i<count; ) {
+         long blknum = first + i;
+         int n = (int) Math.min(count - i, segmentsize - blknum % segmentsize);
+         BlockId blk = blockId(blknum);
+         fm.write(blk, Arrays.copyOfRange(pages, i, i + n));
+         fm.force(blk.fileName());
+         i += n;
+      }
+      synchronized (this) {
+         // a copied current page is written again once it is sealed
+         unwrittenblk = lastblk;
+         if (lsn > lastSavedLSN)
+            lastSavedLSN = lsn;
+         groupFlushes++;
+         notifyAll();
+      }
+   }
 
-      logpage.setBytes(recpos, logrec);
-      logpage.setInt(0, recpos); // the new boundary
-      latestLSN += 1;
-      return latestLSN;
+   /**
+    * Waits until no copies into the page are in progress.
+    * The copies are short, so the writer just yields to the appenders.
+    * @return the state of the page at that moment
+    */
+   private long awaitCopies(LogPage lp) {
+      long s;
+      while (pending(s = lp.state.get()) > 0)
+         Thread.yield();
+      return s;
    }
 
    /**
-    * Initialize the bytebuffer and append it to the log file.
+    * Copies a log kept in a single file into segments,
+    * block by block, and deletes the file.
     */
-   private BlockId appendNewBlock() {
-      BlockId blk = fm.append(logfile);     
-      logpage.setInt(0, fm.blockSize());
-      fm.write(blk, logpage);
-      return blk;
+   private void splitIntoSegments() {
+      Page p = new Page(new byte[blocksize]);
+      int length = fm.length(logfile);
+      Set<String> written = new HashSet<>();
+      for (int i=0; i<length; i++) {
+         fm.read(new BlockId(logfile, i), p);
+         BlockId blk = blockId(i);
+         fm.write(blk, p);
+         written.add(blk.fileName());
+      }
+      for (String filename : written)
+         fm.force(filename);
+      fm.delete(logfile);
    }
 
    /**
-    * Write the buffer to the log file.
+    * Returns the numbers of the log's segments, in order.
     */
-   private void flush() {
-      fm.write(currentblk, logpage);
-      lastSavedLSN = latestLSN;
+   private List<Long> segments() {
+      String prefix = logfile + ".";
+      List<Long> segments = new ArrayList<>();
+      for (String filename : fm.fileNames(prefix)) {
+         try {
+            segments.add(Long.parseLong(filename.substring(prefix.length())));
+         }
+         catch (NumberFormatException e) {
+            // not a segment
+         }
+      }
+      Collections.sort(segments);
+      return segments;
+   }
+
+   private String segmentName(long segment) {
+      return logfile + "." + segment;
+   }
+
+   /**
+    * Returns the LSN of a record at the specified position
+    * of the specified block: its offset in the log,
+    * counting from the end of the block.
+    */
+   private long lsn(long blknum, int recpos) {
+      return blknum * blocksize + (blocksize - recpos);
+   }
+
+   private LogPage slot(long blknum) {
+      return ring[(int) (blknum % ring.length)];
+   }
+
+   private static int boundary(long s) {
+      return (int) (s & BOUNDARY_MASK);
+   }
+
+   private static int pending(long s) {
+      return (int) (s >>> PENDING_SHIFT) & PENDING_MASK;
+   }
+
+   private void waitForWriter() {
+      try {
+         wait();
+      }
+      catch (InterruptedException e) {
+         throw new RuntimeException("interrupted while waiting for the log");
+      }
    }
 }
@@ -1,6 +1,7 @@
 package simpledb.materialize;
 
 import java.util.*;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.plan.Plan;
@@ -15,6 +16,7 @@ public class SortPlan implements Plan {
    private Plan p;
    private Schema sch;
    private RecordComparator comp;
+   private int ringsize = 0;
    
    /**
     * Create a sort plan for the specified query.
@@ -33,15 +35,19 @@ public class SortPlan implements Plan {
     * This method is where most of the action is.
     * Up to 2 sorted temporary tables are created,
     * and are passed into SortScan for final merging.
+    * If the sorted table is large compared to the available
+    * buffers, each scan of a temporary table gets its own
+    * ring of buffers.
     * @see Plan#open()
     */
    public Scan open() {
+      ringsize = BufferRing.ringSize(blocksAccessed(), tx.availableBuffs());
       Scan src = p.open();
       List<TempTable> runs = splitIntoRuns(src);
       src.close();
       while (runs.size() > 2)
          runs = doAMergeIteration(runs);
-      return new SortScan(runs, comp);
+      return new SortScan(runs, comp, ringsize);
    }
    
    /**
@@ -93,14 +99,14 @@ public class SortPlan implements Plan {
          return temps;
       TempTable currenttemp = new TempTable(tx, sch);
       temps.add(currenttemp);
-      UpdateScan currentscan = currenttemp.open();
+      UpdateScan currentscan = openTemp(currenttemp);
       while (copy(src, currentscan))
          if (comp.compare(src, currentscan) < 0) {
          // start a new run
          currentscan.close();
          currenttemp = new TempTable(tx, sch);
          temps.add(currenttemp);
-         currentscan = (UpdateScan) currenttemp.open();
+         currentscan = openTemp(currenttemp);
       }
       currentscan.close();
       return temps;
@@ -119,10 +125,10 @@ public class SortPlan implements Plan {
    }
    
    private TempTable mergeTwoRuns(TempTable p1, TempTable p2) {
-      Scan src1 = p1.open();
-      Scan src2 = p2.open();
+      Scan src1 = openTemp(p1);
+      Scan src2 = openTemp(p2);
       TempTable result = new TempTable(tx, sch);
-      UpdateScan dest = result.open();
+      UpdateScan dest = openTemp(result);
       
       boolean hasmore1 = src1.next();
       boolean hasmore2 = src2.next();
@@ -144,6 +150,10 @@ public class SortPlan implements Plan {
       return result;
    }
    
+   private UpdateScan openTemp(TempTable t) {
+      return t.open((ringsize > 0) ? new BufferRing(ringsize) : null);
+   }
+
    private boolean copy(Scan src, UpdateScan dest) {
       dest.insert();
       for (String fldname : sch.fields())
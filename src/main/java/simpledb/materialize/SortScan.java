@@ -1,6 +1,7 @@
 package simpledb.materialize;
 
 import java.util.*;
+import simpledb.buffer.BufferRing;
 
 import simpledb.query.*;
 import simpledb.record.*;
@@ -27,11 +28,22 @@ public class SortScan implements Scan {
     * @param comp the record comparator
     */
    public SortScan(List<TempTable> runs, RecordComparator comp) {
+      this(runs, comp, 0);
+   }
+
+   /**
+    * Create a sort scan whose runs are each read
+    * through their own ring of buffers.
+    * @param runs the list of runs
+    * @param comp the record comparator
+    * @param ringsize the size of each run's ring, or 0 to use the whole pool
+    */
+   public SortScan(List<TempTable> runs, RecordComparator comp, int ringsize) {
       this.comp = comp;
-      s1 = (UpdateScan) runs.get(0).open();
+      s1 = (UpdateScan) runs.get(0).open(ring(ringsize));
       hasmore1 = s1.next();
       if (runs.size() > 1) {
-         s2 = (UpdateScan) runs.get(1).open();
+         s2 = (UpdateScan) runs.get(1).open(ring(ringsize));
          hasmore2 = s2.next();
       }
    }
@@ -148,4 +160,8 @@ public class SortScan implements Scan {
       if (rid2 != null)
          s2.moveToRid(rid2);
    }
+
+   private static BufferRing ring(int ringsize) {
+      return (ringsize > 0) ? new BufferRing(ringsize) : null;
+   }
 }
@@ -1,6 +1,7 @@
 package simpledb.materialize;
 
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 import simpledb.record.*;
 
@@ -20,20 +21,31 @@ public class TempTable {
    /**
     * Allocate a name for for a new temporary table
     * having the specified schema.
+    * The table's file is deleted when the transaction ends.
     * @param sch the new table's schema
     * @param tx the calling transaction
     */
    public TempTable(Transaction tx, Schema sch) {
       this.tx = tx;
       tblname = nextTableName();
-      layout = new Layout(sch);
+      layout = new Layout(sch, true);
+      tx.registerTempFile(tblname + ".tbl");
    }
    
    /**
     * Open a table scan for the temporary table.
     */
    public UpdateScan open() {
-      return new TableScan(tx, tblname, layout);
+      return open(null);
+   }
+
+   /**
+    * Open a table scan for the temporary table
+    * that uses the specified ring of buffers.
+    * @param ring the scan's ring of buffers, or null to use the whole pool
+    */
+   public UpdateScan open(BufferRing ring) {
+      return new TableScan(tx, tblname, layout, ring);
    }
    
    public String tableName() {
@@ -29,7 +29,7 @@ class TableMgr {
       Schema tcatSchema = new Schema();
       tcatSchema.addStringField("tblname", MAX_NAME);
       tcatSchema.addIntField("reclength");
-      tcatLayout = new Layout(tcatSchema);
+      tcatLayout = new Layout(tcatSchema, true);
 
       Schema fcatSchema = new Schema();
       fcatSchema.addStringField("tblname", MAX_NAME);
@@ -37,7 +37,7 @@ class TableMgr {
       fcatSchema.addIntField("type");
       fcatSchema.addIntField("length");
       fcatSchema.addIntField("offset");
-      fcatLayout = new Layout(fcatSchema);
+      fcatLayout = new Layout(fcatSchema, true);
 
       if (isNew) {
          createTable("tblcat", tcatSchema, tx);
@@ -47,17 +47,19 @@ class TableMgr {
 
    /**
     * Create a new table having the specified name and schema.
+    * The table's records are stored in the variable-length format,
+    * which the catalog records as a negative record length.
     * @param tblname the name of the new table
     * @param sch the table's schema
     * @param tx the transaction creating the table
     */
    public void createTable(String tblname, Schema sch, Transaction tx) {
-      Layout layout = new Layout(sch);
+      Layout layout = new Layout(sch, true);
       // insert one record into tblcat
       TableScan tcat = new TableScan(tx, "tblcat", tcatLayout);
       tcat.insert();
       tcat.setString("tblname", tblname);
-      tcat.setInt("reclength", layout.recordLength());
+      tcat.setInt("reclength", -layout.recordLength());
       tcat.close();
 
       // insert a record into fldcat for each field
@@ -103,6 +105,8 @@ class TableMgr {
             sch.addField(fldname, fldtype, fldlen);
          }
       fcat.close();
+      if (reclen < 0)
+         return new Layout(sch, offsets, -reclen, true);
       return new Layout(sch, offsets, reclen);
    }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package simpledb.multibuffer;
 import static java.sql.Types.INTEGER;
 import java.util.*;
 import simpledb.file.BlockId;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
@@ -19,41 +20,67 @@ public class ChunkScan implements Scan {
    private int startbnum, endbnum, currentbnum;
    private RecordPage rp;
    private int currentslot;
+   private RecordPage fwdrp = null; // the block holding a moved current record
+   private int fwdslot;
+   private BufferRing ring;
 
    /**
     * Create a chunk consisting of the specified pages. 
+    * The pages are pinned with a single range pin,
+    * so that the blocks not in memory are read together.
     * @param layout the metadata for the chunked table
     * @param startbnum the starting block number
     * @param endbnum  the ending block number
     * @param tx the current transaction
     */ 
    public ChunkScan(Transaction tx, String filename, Layout layout, int startbnum, int endbnum) {
+      this(tx, filename, layout, startbnum, endbnum, null);
+   }
+
+   /**
+    * Create a chunk whose pages are pinned through the specified
+    * ring of buffers, which should hold at least one more
+    * buffer than the chunk has pages.
+    * Successive chunks of a scan then reuse the same buffers.
+    * @param ring the scan's ring of buffers, or null to use the whole pool
+    */
+   public ChunkScan(Transaction tx, String filename, Layout layout, int startbnum, int endbnum,
+                    BufferRing ring) {
       this.tx = tx;
+      this.ring = ring;
       this.filename = filename;
       this.layout = layout;
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
+      // read the missing blocks together; the record pages then find them in the pool
+      tx.pinRange(filename, startbnum, endbnum, ring);
       for (int i=startbnum; i<=endbnum; i++) {
          BlockId blk = new BlockId(filename, i);
          buffs.add(new RecordPage(tx, blk, layout));
+         tx.unpin(blk);
       }
       moveToBlock(startbnum);
    }
 
    /**
+    * Unpins the chunk's pages.
+    * Closing the scan again does nothing.
     * @see Scan#close()
     */
    public void close() {
+      closeForward();
       for (int i=0; i<buffs.size(); i++) {
          BlockId blk = new BlockId(filename, startbnum+i);
          tx.unpin(blk);
       }
+      buffs.clear();
    }
 
    /**
     * @see Scan#beforeFirst()
     */
    public void beforeFirst() {
+      closeForward();
       moveToBlock(startbnum);
    }
 
@@ -65,6 +92,7 @@ public class ChunkScan implements Scan {
     * @see Scan#next()
     */
    public boolean next() {
+      closeForward();
       currentslot = rp.nextAfter(currentslot);
       while (currentslot < 0) {
          if (currentbnum == endbnum)
@@ -72,6 +100,11 @@ public class ChunkScan implements Scan {
          moveToBlock(rp.block().number()+1);
          currentslot = rp.nextAfter(currentslot);
       }
+      RID target = rp.forwardedTo(currentslot);
+      if (target != null) {
+         fwdrp = new RecordPage(tx, new BlockId(filename, target.blockNumber()), layout, ring);
+         fwdslot = target.slot();
+      }
       return true;
    }
 
@@ -79,6 +112,8 @@ public class ChunkScan implements Scan {
     * @see Scan#getInt(String)
     */
    public int getInt(String fldname) {
+      if (fwdrp != null)
+         return fwdrp.getInt(fwdslot, fldname);
       return rp.getInt(currentslot, fldname);
    }
 
@@ -86,6 +121,8 @@ public class ChunkScan implements Scan {
     * @see Scan#getString(String)
     */
    public String getString(String fldname) {
+      if (fwdrp != null)
+         return fwdrp.getString(fwdslot, fldname);
       return rp.getString(currentslot, fldname);
    }
 
@@ -106,6 +143,13 @@ public class ChunkScan implements Scan {
       return layout.schema().hasField(fldname);
    }
 
+   private void closeForward() {
+      if (fwdrp != null) {
+         tx.unpin(fwdrp.block());
+         fwdrp = null;
+      }
+   }
+
    private void moveToBlock(int blknum) {
       currentbnum = blknum;
       rp = buffs.get(currentbnum - startbnum);
@@ -44,7 +44,7 @@ public class MultiBufferProductPlan implements Plan {
    public Scan open() {
       Scan leftscan = lhs.open();
       TempTable tt = copyRecordsFrom(rhs);
-      return new MultiBufferProductScan(tx, leftscan, tt.tableName(), tt.getLayout());
+      return new MultiBufferProductScan(tx, leftscan, tt.tableName() + ".tbl", tt.getLayout());
    }
 
    /**
@@ -1,6 +1,7 @@
 package simpledb.multibuffer;
 
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 import simpledb.record.*;
 
@@ -15,6 +16,7 @@ public class MultiBufferProductScan implements Scan {
    private String filename;
    private Layout layout;
    private int chunksize, nextblknum, filesize;
+   private BufferRing ring = null;
    
    
    /**
@@ -31,6 +33,8 @@ public class MultiBufferProductScan implements Scan {
       filesize = tx.size(filename);
       int available = tx.availableBuffs();
       chunksize = BufferNeeds.bestFactor(available, filesize);
+      if (chunksize < filesize)  // the chunks take turns in the same buffers
+         ring = new BufferRing(chunksize + 1);
       beforeFirst();
    }
    
@@ -115,7 +119,7 @@ public class MultiBufferProductScan implements Scan {
       int end = nextblknum + chunksize - 1;
       if (end >= filesize)
          end = filesize - 1;
-      rhsscan = new ChunkScan(tx, filename, layout, nextblknum, end);
+      rhsscan = new ChunkScan(tx, filename, layout, nextblknum, end, ring);
       lhsscan.beforeFirst();
       prodscan = new ProductScan(lhsscan, rhsscan);
       nextblknum = end + 1;
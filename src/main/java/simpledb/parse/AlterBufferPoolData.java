@@ -0,0 +1,34 @@
+package simpledb.parse;
+
+/**
+ * Data for the SQL <i>alter bufferpool</i> statement.
+ */
+public class AlterBufferPoolData {
+   private String poolname;
+   private int size;
+   
+   /**
+    * Saves the name and the new size of the buffer pool.
+    */
+   public AlterBufferPoolData(String poolname, int size) {
+      this.poolname = poolname;
+      this.size = size;
+   }
+   
+   /**
+    * Returns the name of the pool,
+    * or null for the default pool.
+    * @return the name of the pool, or null
+    */
+   public String poolName() {
+      return poolname;
+   }
+   
+   /**
+    * Returns the new number of buffers.
+    * @return the new number of buffers
+    */
+   public int size() {
+      return size;
+   }
+}
@@ -96,6 +96,8 @@ public class Parser {
          return delete();
       else if (lex.matchKeyword("update"))
          return modify();
+      else if (lex.matchKeyword("alter"))
+         return alterBufferPool();
       else
          return create();
    }
@@ -242,5 +244,19 @@ public class Parser {
       lex.eatDelim(')');
       return new CreateIndexData(idxname, tblname, fldname);
    }
+   
+   
+//  Method for parsing alter bufferpool commands
+   
+   public AlterBufferPoolData alterBufferPool() {
+      lex.eatKeyword("alter");
+      lex.eatKeyword("bufferpool");
+      String poolname = null;
+      if (!lex.matchKeyword("size"))
+         poolname = lex.eatId();
+      lex.eatKeyword("size");
+      int size = lex.eatIntConstant();
+      return new AlterBufferPoolData(poolname, size);
+   }
 }
 
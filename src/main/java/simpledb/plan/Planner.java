@@ -1,6 +1,7 @@
 package simpledb.plan;
 
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferMgr;
 import simpledb.parse.*;
 
 /**
@@ -10,10 +11,20 @@ import simpledb.parse.*;
 public class Planner {
    private QueryPlanner qplanner;
    private UpdatePlanner uplanner;
+   private BufferMgr bm;
    
    public Planner(QueryPlanner qplanner, UpdatePlanner uplanner) {
+      this(qplanner, uplanner, null);
+   }
+   
+   /**
+    * Creates a planner that can also execute the
+    * administrative commands on the specified buffer manager.
+    */
+   public Planner(QueryPlanner qplanner, UpdatePlanner uplanner, BufferMgr bm) {
       this.qplanner = qplanner;
       this.uplanner = uplanner;
+      this.bm = bm;
    }
    
    /**
@@ -31,7 +42,10 @@ public class Planner {
    
    /**
     * Executes an SQL insert, delete, modify, or
-    * create statement.
+    * create statement, or an alter bufferpool command.
+    * The bufferpool command resizes the default pool,
+    * or the named pool, at once;
+    * it is not part of the transaction, and returns 0.
     * The method dispatches to the appropriate method of the
     * supplied update planner,
     * depending on what the parser returns.
@@ -55,10 +69,22 @@ public class Planner {
          return uplanner.executeCreateView((CreateViewData)data, tx);
       else if (data instanceof CreateIndexData)
          return uplanner.executeCreateIndex((CreateIndexData)data, tx);
+      else if (data instanceof AlterBufferPoolData)
+         return executeAlterBufferPool((AlterBufferPoolData)data);
       else
          return 0;
    }
  
+   private int executeAlterBufferPool(AlterBufferPoolData data) {
+      if (bm == null)
+         throw new RuntimeException("the planner has no buffer manager");
+      if (data.poolName() == null)
+         bm.resize(data.size());
+      else
+         bm.resize(data.poolName(), data.size());
+      return 0;
+   }
+
    // SimpleDB does not verify queries, although it should.
    private void verifyQuery(QueryData data) {
    }
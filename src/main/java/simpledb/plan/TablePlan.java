@@ -1,6 +1,7 @@
 package simpledb.plan;
 
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.metadata.*;
 import simpledb.query.Scan;
 import simpledb.record.*;
@@ -29,10 +30,13 @@ public class TablePlan implements Plan {
    
    /**
     * Creates a table scan for this query.
+    * A scan of a table that is large compared to the
+    * available buffers gets its own ring of buffers.
     * @see Plan#open()
     */
    public Scan open() {
-      return new TableScan(tx, tblname, layout);
+      BufferRing ring = BufferRing.forScan(si.blocksAccessed(), tx.availableBuffs());
+      return new TableScan(tx, tblname, layout, ring);
    }
    
    /**
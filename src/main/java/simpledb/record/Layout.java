@@ -8,6 +8,15 @@ import simpledb.file.Page;
  * Description of the structure of a record.
  * It contains the name, type, length and offset of
  * each field of the table.
+ * <P>
+ * Records are stored either in fixed-length slots,
+ * in which every string field takes its maximum length,
+ * or in the variable-length format, in which a record
+ * takes only as many bytes as its values need;
+ * see {@link RecordPage}.
+ * For the variable-length format, the field offsets
+ * and record length are upper bounds, which are useful
+ * for cost estimates but do not locate the fields.
  * @author Edward Sciore
  *
  */
@@ -15,6 +24,7 @@ public class Layout {
    private Schema schema;
    private Map<String,Integer> offsets;
    private int recordlen;
+   private boolean varlen;
 
    /**
     * This constructor creates a Layout object from a schema. 
@@ -25,7 +35,19 @@ public class Layout {
     * @param schema the schema of the table's records
     */
    public Layout(Schema schema) {
+      this(schema, false);
+   }
+
+   /**
+    * This constructor creates a Layout object from a schema,
+    * in the fixed-length or the variable-length format.
+    *
+    * @param schema the schema of the table's records
+    * @param varlen true if records are to be stored in the variable-length format
+    */
+   public Layout(Schema schema, boolean varlen) {
       this.schema = schema;
+      this.varlen = varlen;
       offsets  = new HashMap<>();
       int pos = Integer.BYTES; // leave space for the empty/inuse flag
       for (String fldname : schema.fields()) {
@@ -45,9 +67,23 @@ public class Layout {
     * @param recordlen the already-calculated length of each record
     */
    public Layout(Schema schema, Map<String,Integer> offsets, int recordlen) {
+      this(schema, offsets, recordlen, false);
+   }
+
+   /**
+    * Create a Layout object from the specified metadata,
+    * in the fixed-length or the variable-length format.
+    *
+    * @param schema the schema of the table's records
+    * @param offsets the already-calculated offsets of the fields within a record
+    * @param recordlen the already-calculated length of each record
+    * @param varlen true if records are stored in the variable-length format
+    */
+   public Layout(Schema schema, Map<String,Integer> offsets, int recordlen, boolean varlen) {
       this.schema    = schema;
       this.offsets   = offsets;
       this.recordlen = recordlen;
+      this.varlen    = varlen;
    }
 
    /**
@@ -69,12 +105,22 @@ public class Layout {
 
    /**
     * Return the length of a record, in bytes.
+    * For the variable-length format, this is
+    * the length of the largest possible record.
     * @return the length in bytes of a record
     */
    public int recordLength() {
       return recordlen;
    }
 
+   /**
+    * Return true if records are stored in the variable-length format.
+    * @return true if records have variable length
+    */
+   public boolean isVariableLength() {
+      return varlen;
+   }
+
    private int lengthInBytes(String fldname) {
       int fldtype = schema.type(fldname);
       if (fldtype == INTEGER)
@@ -1,24 +1,66 @@
 package simpledb.record;
 
 import static java.sql.Types.INTEGER;
+import java.nio.ByteBuffer;
+import java.util.*;
 import simpledb.file.*;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 
 /**
  * Store a record at a given location in a block. 
+ * <P>
+ * If the layout is fixed-length, the block is an array
+ * of equal-sized slots, each holding an empty/inuse flag
+ * followed by the record's fields.
+ * <P>
+ * If the layout is variable-length, the block is a slotted page.
+ * It begins with the number of slots and the start of the record area,
+ * followed by a directory giving the position of each slot's record
+ * (0 for an empty slot). Records are allocated from the end of
+ * the block towards the directory. A record holds its flag and
+ * capacity, followed by its fields; an integer takes 4 bytes
+ * and a string takes its UTF-8 bytes plus a length prefix.
+ * A record that grows beyond its capacity is rewritten elsewhere
+ * in the block, compacting the block if necessary;
+ * if the block has no room at all, the caller must move the record
+ * to another block and leave a forwarding stub in its slot
+ * (see {@link #setForward(int, RID)}), so that its RID stays valid.
+ * Every change is logged as a before-image of the bytes it overwrites.
+ * <P>
+ * The values are read straight from the block's page,
+ * which the record page gets from the transaction
+ * (together with the block's lock) the first time it reads;
+ * only the changes go through the transaction.
  * @author Edward Sciore
  */
 public class RecordPage {
    public static final int EMPTY = 0, USED = 1;
+   // the other flags of a variable-length record
+   public static final int MOVED = 2, FORWARD = 3;
+   // the header of a slotted page
+   private static final int NUMSLOTS = 0, FREE = 4, DIR = 8;
+   // a variable-length record's flag and capacity, and a forwarding stub
+   private static final int REC_HEADER = 8, STUB_SIZE = 16;
    private Transaction tx;
    private BlockId blk;
    private Layout layout;
+   private Page page = null;
 
    public RecordPage(Transaction tx, BlockId blk, Layout layout) {
+      this(tx, blk, layout, null);
+   }
+
+   /**
+    * Creates a record page for a scan that has its own
+    * ring of buffers; the block is pinned through the ring.
+    * @param ring the scan's ring of buffers, or null
+    */
+   public RecordPage(Transaction tx, BlockId blk, Layout layout, BufferRing ring) {
       this.tx = tx;
       this.blk = blk;
       this.layout = layout;
-      tx.pin(blk);
+      tx.pin(blk, ring);
    }
 
    /**
@@ -28,8 +70,7 @@ public class RecordPage {
     * @return the integer stored in that field
     */
    public int getInt(int slot, String fldname) {
-      int fldpos = offset(slot) + layout.offset(fldname);
-      return tx.getInt(blk, fldpos);
+      return page().getInt(fieldPos(slot, fldname));
    }
 
    /**
@@ -39,8 +80,7 @@ public class RecordPage {
     * @return the string stored in that field
     */
    public String getString(int slot, String fldname) {
-      int fldpos = offset(slot) + layout.offset(fldname);
-      return tx.getString(blk, fldpos);
+      return page().getString(fieldPos(slot, fldname));
    }
 
    /**
@@ -50,23 +90,41 @@ public class RecordPage {
     * @param val the integer value stored in that field
     */
    public void setInt(int slot, String fldname, int val) {
-      int fldpos = offset(slot) + layout.offset(fldname);
-      tx.setInt(blk, fldpos, val, true);
+      tx.setInt(blk, fieldPos(slot, fldname), val, true);
    }
 
    /**
     * Store a string at the specified field
     * of the specified slot.
+    * A variable-length record may not have room
+    * for a longer string in its block, in which case
+    * nothing is changed and the method returns false.
     * @param fldname the name of the field
     * @param val the string value stored in that field
+    * @return false if the record no longer fits in the block
     */
-   public void setString(int slot, String fldname, String val) {
-      int fldpos = offset(slot) + layout.offset(fldname);
-      tx.setString(blk, fldpos, val, true);
+   public boolean setString(int slot, String fldname, String val) {
+      if (!layout.isVariableLength()) {
+         tx.setString(blk, fieldPos(slot, fldname), val, true);
+         return true;
+      }
+      int recpos = recordPos(slot);
+      int fldpos = fieldPos(slot, fldname) - recpos;
+      int used = usedLength(recpos);
+      byte[] old = page().readBytes(recpos, used);
+      int oldlen = Integer.BYTES + ByteBuffer.wrap(old).getInt(fldpos);
+      byte[] b = val.getBytes(Page.CHARSET);
+      ByteBuffer image = ByteBuffer.allocate(used - oldlen + Integer.BYTES + b.length);
+      image.put(old, 0, fldpos).putInt(b.length).put(b);
+      image.put(old, fldpos + oldlen, used - fldpos - oldlen);
+      return place(slot, recpos, image.array());
    }
    
    public void delete(int slot) {
-      setFlag(slot, EMPTY);
+      if (layout.isVariableLength())
+         setRecordPos(slot, 0);
+      else
+         setFlag(slot, EMPTY);
    }
    
    /** Use the layout to format a new block of records.
@@ -74,6 +132,11 @@ public class RecordPage {
     *  (because the old values are meaningless).
     */ 
    public void format() {
+      if (layout.isVariableLength()) {
+         tx.setInt(blk, NUMSLOTS, 0, false);
+         tx.setInt(blk, FREE, tx.blockSize(), false);
+         return;
+      }
       int slot = 0;
       while (isValidSlot(slot)) {
          tx.setInt(blk, offset(slot), EMPTY, false); 
@@ -90,21 +153,83 @@ public class RecordPage {
    }
 
    public int nextAfter(int slot) {
+      if (layout.isVariableLength()) {
+         int n = page().getInt(NUMSLOTS);
+         for (int s=slot+1; s<n; s++) {
+            int recpos = recordPos(s);
+            if (recpos != 0 && page().getInt(recpos) != MOVED)
+               return s;
+         }
+         return -1;
+      }
       return searchAfter(slot, USED);
    }
  
    public int insertAfter(int slot) {
+      if (layout.isVariableLength())
+         return insertRecord(slot, USED);
       int newslot = searchAfter(slot, EMPTY);
       if (newslot >= 0)
          setFlag(newslot, USED);
       return newslot;
    }
+
+   /**
+    * Insert an empty record that will hold a record
+    * moved from another block.
+    * Such a record is reached through the forwarding stub
+    * in its original slot, so it is skipped by {@link #nextAfter(int)}.
+    * @return the new record's slot, or -1 if the block is full
+    */
+   public int insertMoved() {
+      return insertRecord(-1, MOVED);
+   }
+
+   /**
+    * Return the location of the record that the specified slot
+    * forwards to, or null if the slot holds its record itself.
+    * @param slot the slot of a record
+    * @return the RID of the moved record, or null
+    */
+   public RID forwardedTo(int slot) {
+      if (!layout.isVariableLength())
+         return null;
+      int recpos = recordPos(slot);
+      if (page().getInt(recpos) != FORWARD)
+         return null;
+      return new RID(page().getInt(recpos + REC_HEADER),
+                     page().getInt(recpos + REC_HEADER + Integer.BYTES));
+   }
+
+   /**
+    * Replace the record in the specified slot with a stub
+    * that forwards to the specified location.
+    * @param slot the slot of a record
+    * @param target the new location of the record
+    */
+   public void setForward(int slot, RID target) {
+      int recpos = recordPos(slot);
+      ByteBuffer stub = ByteBuffer.allocate(STUB_SIZE);
+      stub.putInt(FORWARD).putInt(page().getInt(recpos + Integer.BYTES));
+      stub.putInt(target.blockNumber()).putInt(target.slot());
+      tx.setBytes(blk, recpos, stub.array(), true);
+   }
   
    public BlockId block() {
       return blk;
    }
    
    // Private auxiliary methods
+
+   /**
+    * Return the block's page, getting it and
+    * the block's SLock on the first call.
+    */
+   private Page page() {
+      if (page == null)
+         page = tx.page(blk);
+      return page;
+   }
    
    /**
     * Set the record's empty/inuse flag.
@@ -116,7 +241,7 @@ public class RecordPage {
    private int searchAfter(int slot, int flag) {
       slot++;
       while (isValidSlot(slot)) {
-         if (tx.getInt(blk, offset(slot)) == flag)
+         if (page().getInt(offset(slot)) == flag)
             return slot;
          slot++;
       }
@@ -130,4 +255,180 @@ public class RecordPage {
    private int offset(int slot) {
       return slot * layout.recordLength();
    }
+
+   private int fieldPos(int slot, String fldname) {
+      if (!layout.isVariableLength())
+         return offset(slot) + layout.offset(fldname);
+      int pos = recordPos(slot) + REC_HEADER;
+      for (String f : layout.schema().fields()) {
+         if (f.equals(fldname))
+            break;
+         pos += fieldLength(f, pos);
+      }
+      return pos;
+   }
+
+   private int fieldLength(String fldname, int pos) {
+      if (layout.schema().type(fldname) == INTEGER)
+         return Integer.BYTES;
+      else
+         return Integer.BYTES + page().getInt(pos);
+   }
+
+   // Auxiliary methods for the variable-length format
+
+   private int recordPos(int slot) {
+      return page().getInt(DIR + slot * Integer.BYTES);
+   }
+
+   private void setRecordPos(int slot, int recpos) {
+      tx.setInt(blk, DIR + slot * Integer.BYTES, recpos, true);
+   }
+
+   /**
+    * Return the number of bytes that the record at the
+    * specified position currently uses.
+    */
+   private int usedLength(int recpos) {
+      if (page().getInt(recpos) == FORWARD)
+         return STUB_SIZE;
+      int pos = recpos + REC_HEADER;
+      for (String f : layout.schema().fields())
+         pos += fieldLength(f, pos);
+      return pos - recpos;
+   }
+
+   /**
+    * Insert an empty record having the specified flag,
+    * in the first empty slot after the specified one,
+    * or in a new slot if there is no such empty slot.
+    * @return the new slot, or -1 if the block is full
+    */
+   private int insertRecord(int slot, int flag) {
+      int n = page().getInt(NUMSLOTS);
+      int newslot = -1;
+      for (int s=slot+1; s<n; s++)
+         if (recordPos(s) == 0) {
+            newslot = s;
+            break;
+         }
+      int dirgrowth = (newslot < 0) ? Integer.BYTES : 0;
+      byte[] image = emptyRecord(flag);
+      int recpos = allocate(image.length, -1, 0, dirgrowth);
+      if (recpos < 0)
+         return -1;
+      if (newslot < 0) {
+         newslot = n;
+         tx.setInt(blk, NUMSLOTS, n+1, true);
+      }
+      tx.setBytes(blk, recpos, image, true);
+      setRecordPos(newslot, recpos);
+      return newslot;
+   }
+
+   private byte[] emptyRecord(int flag) {
+      int size = REC_HEADER + layout.schema().fields().size() * Integer.BYTES;
+      size = Math.max(size, STUB_SIZE); // so the record can become a stub
+      ByteBuffer image = ByteBuffer.allocate(size);
+      image.putInt(flag).putInt(size);
+      return image.array();  // integers are 0 and strings are empty
+   }
+
+   /**
+    * Write the new image of the record in the specified slot.
+    * The image is written in place if it fits the record's capacity;
+    * otherwise the record is moved within the block.
+    * @return false if the block has no room for the image
+    */
+   private boolean place(int slot, int recpos, byte[] image) {
+      ByteBuffer bb = ByteBuffer.wrap(image);
+      int cap = page().getInt(recpos + Integer.BYTES);
+      if (image.length <= cap) {
+         bb.putInt(Integer.BYTES, cap);
+         tx.setBytes(blk, recpos, image, true);
+         return true;
+      }
+      int newpos = allocate(image.length, recpos, cap, 0);
+      if (newpos < 0)
+         return false;
+      bb.putInt(Integer.BYTES, image.length);
+      tx.setBytes(blk, newpos, image, true);
+      if (newpos != recpos)
+         setRecordPos(slot, newpos);
+      return true;
+   }
+
+   /**
+    * Find room in the block for a record of the specified size.
+    * A record being moved can grow in place if it is
+    * the first record of the record area.
+    * Otherwise the room is taken from the free space
+    * between the directory and the record area,
+    * compacting the records first if that is what it takes.
+    * @param size the size of the record
+    * @param oldpos the position of the record being moved, or -1
+    * @param oldcap the capacity of the record being moved
+    * @param dirgrowth the number of bytes the directory will grow by
+    * @return the position of the room, or -1 if there is none
+    */
+   private int allocate(int size, int oldpos, int oldcap, int dirgrowth) {
+      int free = page().getInt(FREE);
+      int dirend = DIR + page().getInt(NUMSLOTS) * Integer.BYTES + dirgrowth;
+      int newpos;
+      if (oldpos == free && oldpos + oldcap - size >= dirend)
+         newpos = oldpos + oldcap - size;
+      else if (free - size >= dirend)
+         newpos = free - size;
+      else if (tx.blockSize() - liveBytes(oldpos) - size >= dirend)
+         newpos = compact(oldpos) - size;
+      else
+         return -1;
+      tx.setInt(blk, FREE, newpos, true);
+      return newpos;
+   }
+
+   private int liveBytes(int exclude) {
+      int total = 0;
+      int n = page().getInt(NUMSLOTS);
+      for (int s=0; s<n; s++) {
+         int recpos = recordPos(s);
+         if (recpos != 0 && recpos != exclude)
+            total += compactLength(recpos);
+      }
+      return total;
+   }
+
+   private int compactLength(int recpos) {
+      return Math.max(usedLength(recpos), STUB_SIZE);
+   }
+
+   /**
+    * Move the records of the block to the end of the block,
+    * squeezing out the space left by deleted and moved records.
+    * The record at the excluded position is about to be
+    * rewritten elsewhere, and is dropped.
+    * @param exclude the position of a record to drop, or -1
+    * @return the new start of the record area
+    */
+   private int compact(int exclude) {
+      int n = page().getInt(NUMSLOTS);
+      int newfree = tx.blockSize() - liveBytes(exclude);
+      ByteBuffer area = ByteBuffer.allocate(tx.blockSize() - newfree);
+      int[] newpos = new int[n];
+      for (int s=0; s<n; s++) {
+         int recpos = recordPos(s);
+         if (recpos == 0 || recpos == exclude)
+            continue;
+         int len = compactLength(recpos);
+         newpos[s] = newfree + area.position();
+         byte[] image = page().readBytes(recpos, len);
+         ByteBuffer.wrap(image).putInt(Integer.BYTES, len);
+         area.put(image);
+      }
+      tx.setBytes(blk, newfree, area.array(), true);
+      for (int s=0; s<n; s++)
+         if (newpos[s] != 0)
+            setRecordPos(s, newpos[s]);
+      return newfree;
+   }
 }
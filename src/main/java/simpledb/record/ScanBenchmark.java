@@ -0,0 +1,91 @@
+package simpledb.record;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+import simpledb.tx.Transaction;
+
+/**
+ * Measures the CPU cost of scanning a table whose blocks
+ * are all in the buffer pool, reading every field of every row.
+ * The scan is compared with reading the same fields through
+ * {@link Transaction#getInt(BlockId, int)} and
+ * {@link Transaction#getString(BlockId, int)}, which look up
+ * the lock and the buffer for every value;
+ * a {@link RecordPage} does those lookups once per block.
+ */
+public class ScanBenchmark {
+   private static final int ROWS = 20000;
+   private static final int ROUNDS = 50;
+
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("scanbenchmark", 4096, 1000);
+      Schema sch = new Schema();
+      sch.addIntField("a");
+      sch.addStringField("b", 20);
+      Layout layout = new Layout(sch);
+      Transaction tx = db.newTx();
+      if (tx.size("bench.tbl") == 0) {
+         TableScan ts = new TableScan(tx, "bench", layout);
+         for (int i=0; i<ROWS; i++) {
+            ts.insert();
+            ts.setInt("a", i);
+            ts.setString("b", "row" + i);
+         }
+         ts.close();
+      }
+      tx.commit();
+
+      tx = db.newTx();
+      for (int r=0; r<ROUNDS; r++) {  // warm up
+         scan(tx, layout);
+         lookups(tx, layout);
+      }
+      long start = System.nanoTime();
+      long rows = 0;
+      for (int r=0; r<ROUNDS; r++)
+         rows += scan(tx, layout);
+      long elapsed = System.nanoTime() - start;
+      System.out.println("table scan: " + (elapsed / rows) + " ns per row");
+
+      start = System.nanoTime();
+      rows = 0;
+      for (int r=0; r<ROUNDS; r++)
+         rows += lookups(tx, layout);
+      elapsed = System.nanoTime() - start;
+      System.out.println("per-value lookups: " + (elapsed / rows) + " ns per row");
+      tx.commit();
+   }
+
+   private static int scan(Transaction tx, Layout layout) {
+      TableScan ts = new TableScan(tx, "bench", layout);
+      int n = 0;
+      long sum = 0;
+      while (ts.next()) {
+         sum += ts.getInt("a") + ts.getString("b").length();
+         n++;
+      }
+      ts.close();
+      return (sum < 0) ? 0 : n;
+   }
+
+   private static int lookups(Transaction tx, Layout layout) {
+      int n = 0;
+      long sum = 0;
+      int slots = tx.blockSize() / layout.recordLength();
+      int size = tx.size("bench.tbl");
+      for (int b=0; b<size; b++) {
+         BlockId blk = new BlockId("bench.tbl", b);
+         tx.pin(blk);
+         for (int s=0; s<slots; s++) {
+            int pos = s * layout.recordLength();
+            if (tx.getInt(blk, pos) == RecordPage.USED) {
+               sum += tx.getInt(blk, pos + layout.offset("a"))
+                    + tx.getString(blk, pos + layout.offset("b")).length();
+               n++;
+            }
+         }
+         tx.unpin(blk);
+      }
+      return (sum < 0) ? 0 : n;
+   }
+}
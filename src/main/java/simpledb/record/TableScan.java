@@ -1,13 +1,20 @@
 package simpledb.record;
 
 import static java.sql.Types.INTEGER;
+import java.util.*;
 import simpledb.file.BlockId;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 import simpledb.tx.Transaction;
 
 /**
  * Provides the abstraction of an arbitrarily large array
  * of records.
+ * A variable-length record that has been moved to another
+ * block is reached through the forwarding stub in its
+ * original slot, which remains the record's RID.
+ * A scan of a large table can be given a {@link BufferRing},
+ * so that it does not flood the buffer pool.
  * @author sciore
  */
 public class TableScan implements UpdateScan {
@@ -16,9 +23,22 @@ public class TableScan implements UpdateScan {
    private RecordPage rp;
    private String filename;
    private int currentslot;
+   private RecordPage fwdrp = null; // the block holding a moved current record
+   private int fwdslot;
+   private BufferRing ring;
 
    public TableScan(Transaction tx, String tblname, Layout layout) {
+      this(tx, tblname, layout, null);
+   }
+
+   /**
+    * Creates a table scan whose blocks are pinned
+    * through the specified ring of buffers.
+    * @param ring the scan's ring of buffers, or null to use the whole pool
+    */
+   public TableScan(Transaction tx, String tblname, Layout layout, BufferRing ring) {
       this.tx = tx;
+      this.ring = ring;
       this.layout = layout;
       filename = tblname + ".tbl";
       if (tx.size(filename) == 0)
@@ -34,6 +54,7 @@ public class TableScan implements UpdateScan {
    }
 
    public boolean next() {
+      closeForward();
       currentslot = rp.nextAfter(currentslot);
       while (currentslot < 0) {
          if (atLastBlock())
@@ -41,14 +62,19 @@ public class TableScan implements UpdateScan {
          moveToBlock(rp.block().number()+1);
          currentslot = rp.nextAfter(currentslot);
       }
+      followForward();
       return true;
    }
 
    public int getInt(String fldname) {
+      if (fwdrp != null)
+         return fwdrp.getInt(fwdslot, fldname);
       return rp.getInt(currentslot, fldname);
    }
 
    public String getString(String fldname) {
+      if (fwdrp != null)
+         return fwdrp.getString(fwdslot, fldname);
       return rp.getString(currentslot, fldname);
    }
 
@@ -64,6 +90,7 @@ public class TableScan implements UpdateScan {
    }
 
    public void close() {
+      closeForward();
       if (rp != null)
          tx.unpin(rp.block());
    }
@@ -71,11 +98,17 @@ public class TableScan implements UpdateScan {
    // Methods that implement UpdateScan
 
    public void setInt(String fldname, int val) {
-      rp.setInt(currentslot, fldname, val);
+      if (fwdrp != null)
+         fwdrp.setInt(fwdslot, fldname, val);
+      else
+         rp.setInt(currentslot, fldname, val);
    }
    
    public void setString(String fldname, String val) {
-      rp.setString(currentslot, fldname, val);
+      boolean ok = (fwdrp != null) ? fwdrp.setString(fwdslot, fldname, val)
+                                   : rp.setString(currentslot, fldname, val);
+      if (!ok)
+         moveRecord(fldname, val);
    }
 
    public void setVal(String fldname, Constant val) {
@@ -86,6 +119,7 @@ public class TableScan implements UpdateScan {
    }
 
    public void insert() {
+      closeForward();
       currentslot = rp.insertAfter(currentslot);
       while (currentslot < 0) {
          if (atLastBlock()) 
@@ -97,14 +131,19 @@ public class TableScan implements UpdateScan {
    }
 
    public void delete() {
+      if (fwdrp != null) {
+         fwdrp.delete(fwdslot);
+         closeForward();
+      }
       rp.delete(currentslot);
    }
 
    public void moveToRid(RID rid) {
       close();
       BlockId blk = new BlockId(filename, rid.blockNumber());
-      rp = new RecordPage(tx, blk, layout);
+      rp = new RecordPage(tx, blk, layout, ring);
       currentslot = rid.slot();
+      followForward();
    }
 
    public RID getRid() {
@@ -116,18 +155,88 @@ public class TableScan implements UpdateScan {
    private void moveToBlock(int blknum) {
       close();
       BlockId blk = new BlockId(filename, blknum);
-      rp = new RecordPage(tx, blk, layout);
+      rp = new RecordPage(tx, blk, layout, ring);
       currentslot = -1;
    }
 
    private void moveToNewBlock() {
       close();
       BlockId blk = tx.append(filename);
-      rp = new RecordPage(tx, blk, layout);
+      rp = new RecordPage(tx, blk, layout, ring);
       rp.format();
       currentslot = -1;
    }
 
+   /**
+    * If the current slot holds a forwarding stub,
+    * pin the block that holds the record.
+    */
+   private void followForward() {
+      RID target = rp.forwardedTo(currentslot);
+      if (target != null) {
+         BlockId blk = new BlockId(filename, target.blockNumber());
+         fwdrp = new RecordPage(tx, blk, layout, ring);
+         fwdslot = target.slot();
+      }
+   }
+
+   private void closeForward() {
+      if (fwdrp != null) {
+         tx.unpin(fwdrp.block());
+         fwdrp = null;
+      }
+   }
+
+   /**
+    * Move the current record to another block, because
+    * the new value of a field makes it too big for its own.
+    * The record goes to the last block of the file,
+    * or to a new block if the last one is full.
+    * The current slot is left holding a forwarding stub.
+    * @param fldname the field being modified
+    * @param val the field's new value
+    */
+   private void moveRecord(String fldname, String val) {
+      Map<String,Constant> vals = new HashMap<>();
+      for (String f : layout.schema().fields())
+         vals.put(f, getVal(f));
+      vals.put(fldname, new Constant(val));
+      if (fwdrp != null) {
+         fwdrp.delete(fwdslot);
+         closeForward();
+      }
+      BlockId last = new BlockId(filename, tx.size(filename) - 1);
+      RecordPage target = new RecordPage(tx, last, layout, ring);
+      int slot = copyInto(target, vals);
+      if (slot < 0) {
+         tx.unpin(target.block());
+         target = new RecordPage(tx, tx.append(filename), layout, ring);
+         target.format();
+         slot = copyInto(target, vals);
+         if (slot < 0)
+            throw new RuntimeException("record too large for a block of " + filename);
+      }
+      rp.setForward(currentslot, new RID(target.block().number(), slot));
+      fwdrp = target;
+      fwdslot = slot;
+   }
+
+   private int copyInto(RecordPage target, Map<String,Constant> vals) {
+      int slot = target.insertMoved();
+      if (slot < 0)
+         return -1;
+      for (String f : layout.schema().fields()) {
+         Constant c = vals.get(f);
+         if (layout.schema().type(f) == INTEGER)
+            target.setInt(slot, f, c.asInt());
+         else if (!target.setString(slot, f, c.asString())) {
+            target.delete(slot);
+            return -1;
+         }
+      }
+      return slot;
+   }
+
    private boolean atLastBlock() {
       return rp.block().number() == tx.size(filename) - 1;
    }
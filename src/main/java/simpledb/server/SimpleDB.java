@@ -1,7 +1,7 @@
 package simpledb.server;
 
 import java.io.File;
-import simpledb.file.FileMgr;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.buffer.BufferMgr;
 import simpledb.tx.Transaction;
@@ -16,36 +16,78 @@ import simpledb.opt.HeuristicQueryPlanner;
  * @author Edward Sciore
  */
 public class SimpleDB {
-   public static int BLOCK_SIZE = 400;
+   public static int BLOCK_SIZE = 4096;
+   public static final int MIN_BLOCK_SIZE = FileMgr.MIN_BLOCK_SIZE, MAX_BLOCK_SIZE = FileMgr.MAX_BLOCK_SIZE;
    public static int BUFFER_SIZE = 8;
+   public static int READ_AHEAD = 8;
+   public static String REPLACEMENT_POLICY = "lru";
+   public static double DIRTY_RATIO_LOW = 0.05, DIRTY_RATIO_HIGH = 0.2;
+   public static long PIN_TIMEOUT = 10000; // milliseconds
+   public static boolean WARM_RESTART = true;
+   // buffers of a pool of their own for the catalog tables and B-tree directories
+   public static int CATALOG_POOL_SIZE = 0;
+   // buffers of a pool of their own for temporary tables
+   public static int TEMP_POOL_SIZE = 0;
    public static String LOG_FILE = "simpledb.log";
+   public static int LOG_BUFFERS = 8;
+   public static int LOG_SEGMENT_SIZE = 1024; // blocks
+   public static long GROUP_COMMIT_WAIT = 0; // microseconds
+   public static Durability DURABILITY = Durability.SYNC_ON_COMMIT;
+   public static int EXTENT_SIZE = 8;
+   public static int MAX_OPEN_FILES = 128;
+   public static boolean COMPRESS_TABLES = false;
+   public static String[] MAPPED_FILES = {"tblcat.tbl", "fldcat.tbl",
+                                          "idxcat.tbl", "viewcat.tbl"};
 
    private  FileMgr     fm;
    private  BufferMgr   bm;
    private  LogMgr      lm;
    private  MetadataMgr mdm;
    private  Planner planner;
+   private  File warmFile;
 
    /**
     * A constructor useful for debugging.
+    * The block size is used only if the database is new
+    * (any size is accepted here); an existing database
+    * keeps the block size it was created with.
     * @param dirname the name of the database directory
     * @param blocksize the block size
     * @param buffsize the number of buffers
     */
    public SimpleDB(String dirname, int blocksize, int buffsize) {
       File dbDirectory = new File(dirname);
-      fm = new FileMgr(dbDirectory, blocksize);
-      lm = new LogMgr(fm, LOG_FILE);
+      fm = new FileMgr(dbDirectory, blocksize, DURABILITY);
+      fm.setExtentSize(EXTENT_SIZE);
+      fm.setMaxOpenFiles(MAX_OPEN_FILES);
+      fm.setCompressTables(COMPRESS_TABLES);
+      for (String filename : MAPPED_FILES)
+         fm.setMapped(filename, true);
+      lm = new LogMgr(fm, LOG_FILE, LOG_BUFFERS, LOG_SEGMENT_SIZE);
+      lm.setGroupCommitWait(GROUP_COMMIT_WAIT);
       bm = new BufferMgr(fm, lm, buffsize); 
+      if (CATALOG_POOL_SIZE > 0)
+         bm.addPool("catalog", CATALOG_POOL_SIZE, "tblcat.tbl", "fldcat.tbl",
+                    "idxcat.tbl", "viewcat.tbl", "*dir");
+      if (TEMP_POOL_SIZE > 0)
+         bm.addPool("temp", TEMP_POOL_SIZE, "temp*");
+      bm.setReadAhead(READ_AHEAD);
+      bm.setReplacementPolicy(REPLACEMENT_POLICY);
+      bm.setBackgroundWriter(DIRTY_RATIO_LOW, DIRTY_RATIO_HIGH);
+      bm.setPinTimeout(PIN_TIMEOUT);
+      warmFile = new File(dbDirectory, FileMgr.WARM_FILE);
    }
    
    /**
     * A simpler constructor for most situations. Unlike the
     * 3-arg constructor, it also initializes the metadata tables.
+    * A new database gets the block size BLOCK_SIZE;
+    * an existing one keeps its recorded block size.
+    * Either must be a power of two from 4K to 64K.
     * @param dirname the name of the database directory
     */
    public SimpleDB(String dirname) {
-      this(dirname, BLOCK_SIZE, BUFFER_SIZE); 
+      this(dirname, FileMgr.checkBlockSize(blockSize(dirname)), BUFFER_SIZE); 
       Transaction tx = newTx();
       boolean isnew = fm.isNew();
       if (isnew)
@@ -59,10 +101,37 @@ public class SimpleDB {
       QueryPlanner qp = new BasicQueryPlanner(mdm);
 //    UpdatePlanner up = new IndexUpdatePlanner(mdm);
       UpdatePlanner up = new BasicUpdatePlanner(mdm);
-      planner = new Planner(qp, up);
+      planner = new Planner(qp, up, bm);
       tx.commit();
+      if (WARM_RESTART)
+         bm.warmUp(warmFile);
+   }
+
+   /**
+    * Shuts the database down cleanly.
+    * The background writer and read-ahead threads are stopped,
+    * and the list of blocks in the buffer pool is saved,
+    * so that the next start
+    * can read them back instead of starting cold.
+    * Transactions that are still active are not committed;
+    * recovery rolls them back at the next start.
+    */
+   public void shutdown() {
+      bm.setBackgroundWriter(0, 0);
+      bm.setReadAhead(0);
+      if (WARM_RESTART)
+         bm.saveResidentBlocks(warmFile);
    }
    
+   /**
+    * Returns the block size recorded for the database,
+    * or BLOCK_SIZE if it has none recorded.
+    */
+   private static int blockSize(String dirname) {
+      int recorded = FileMgr.recordedBlockSize(new File(dirname));
+      return (recorded > 0) ? recorded : BLOCK_SIZE;
+   }
+
    /**
     * A convenient way for clients to create transactions
     * and access the metadata.
@@ -31,13 +31,30 @@ class BufferList {
    /**
     * Pin the block and keep track of the buffer internally.
     * @param blk a reference to the disk block
+    * @param ring the scan's ring of buffers, or null
     */
-   void pin(BlockId blk) {
-      Buffer buff = bm.pin(blk);
+   void pin(BlockId blk, BufferRing ring) {
+      Buffer buff = bm.pin(blk, ring);
       buffers.put(blk, buff);
       pins.add(blk);
    }
    
+   /**
+    * Pin a range of consecutive blocks and keep track
+    * of their buffers internally.
+    * @param first a reference to the first disk block
+    * @param count the number of blocks
+    * @param ring the scan's ring of buffers, or null
+    */
+   void pinRange(BlockId first, int count, BufferRing ring) {
+      Buffer[] buffs = bm.pinRange(first, count, ring);
+      for (int i=0; i<count; i++) {
+         BlockId blk = new BlockId(first.fileName(), first.number()+i);
+         buffers.put(blk, buffs[i]);
+         pins.add(blk);
+      }
+   }
+
    /**
     * Unpin the specified block.
     * @param blk a reference to the disk block
@@ -1,5 +1,6 @@
 package simpledb.tx;
 
+import java.util.*;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.buffer.*;
@@ -21,6 +22,7 @@ public class Transaction {
    private FileMgr fm;
    private int txnum;
    private BufferList mybuffers;
+   private List<String> tempfiles = new ArrayList<>();
    
    /**
     * Create a new transaction and its associated 
@@ -48,8 +50,11 @@ public class Transaction {
     * Flush all modified buffers (and their log records),
     * write and flush a commit record to the log,
     * release all locks, and unpin any pinned buffers.
+    * The transaction's temporary files are deleted first,
+    * so that their blocks are not flushed.
     */
    public void commit() {
+      deleteTempFiles();
       recoveryMgr.commit();
       System.out.println("transaction " + txnum + " committed");
       concurMgr.release();
@@ -62,12 +67,24 @@ public class Transaction {
     * flush those buffers,
     * write and flush a rollback record to the log,
     * release all locks, and unpin any pinned buffers.
+    * Finally, delete the transaction's temporary files.
     */
    public void rollback() {
       recoveryMgr.rollback();
       System.out.println("transaction " + txnum + " rolled back");
       concurMgr.release();
       mybuffers.unpinAll();
+      deleteTempFiles();
+   }
+
+   /**
+    * Registers a temporary file created by this transaction.
+    * The file is deleted when the transaction
+    * commits or rolls back.
+    * @param filename the name of the file
+    */
+   public void registerTempFile(String filename) {
+      tempfiles.add(filename);
    }
    
    /**
@@ -89,7 +106,45 @@ public class Transaction {
     * @param blk a reference to the disk block
     */
    public void pin(BlockId blk) {
-      mybuffers.pin(blk);
+      mybuffers.pin(blk, null);
+   }
+
+   /**
+    * Pin the specified block on behalf of a scan
+    * that has its own ring of buffers.
+    * A block that is not in the buffer pool is read into
+    * one of the ring's buffers.
+    * @param blk a reference to the disk block
+    * @param ring the scan's ring of buffers, or null
+    */
+   public void pin(BlockId blk, BufferRing ring) {
+      mybuffers.pin(blk, ring);
+   }
+   
+   /**
+    * Pin the blocks of the specified file
+    * from startbnum to endbnum inclusive.
+    * The blocks not in the buffer pool are read together,
+    * which is faster than pinning them one at a time.
+    * Each block must later be unpinned individually.
+    * @param filename the name of the file
+    * @param startbnum the number of the first block
+    * @param endbnum the number of the last block
+    */
+   public void pinRange(String filename, int startbnum, int endbnum) {
+      pinRange(filename, startbnum, endbnum, null);
+   }
+
+   /**
+    * Pin a range of blocks on behalf of a scan
+    * that has its own ring of buffers.
+    * @param filename the name of the file
+    * @param startbnum the number of the first block
+    * @param endbnum the number of the last block
+    * @param ring the scan's ring of buffers, or null
+    */
+   public void pinRange(String filename, int startbnum, int endbnum, BufferRing ring) {
+      mybuffers.pinRange(new BlockId(filename, startbnum), endbnum-startbnum+1, ring);
    }
    
    /**
@@ -117,6 +172,25 @@ public class Transaction {
       return buff.contents().getInt(offset);
    }
    
+   /**
+    * Return the page of the specified pinned block,
+    * so that a scan can read many values of the block
+    * without looking up its lock and buffer for each one.
+    * The method obtains an SLock on the block, which the
+    * transaction keeps until it ends, and the page stays
+    * the block's page while the block is pinned;
+    * the page thus reflects the transaction's own changes.
+    * The page must only be read;
+    * changes go through {@link #setInt(BlockId, int, int, boolean)}
+    * and the other set methods, which log them.
+    * @param blk a reference to a pinned disk block
+    * @return the page holding the block's contents
+    */
+   public Page page(BlockId blk) {
+      concurMgr.sLock(blk);
+      return mybuffers.getBuffer(blk).contents();
+   }
+
    /**
     * Return the string value stored at the
     * specified offset of the specified block.
@@ -148,7 +222,7 @@ public class Transaction {
    public void setInt(BlockId blk, int offset, int val, boolean okToLog) {
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
+      long lsn = -1;
       if (okToLog)
          lsn = recoveryMgr.setInt(buff, offset, val);
       Page p = buff.contents();
@@ -172,7 +246,7 @@ public class Transaction {
    public void setString(BlockId blk, int offset, String val, boolean okToLog) {
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
+      long lsn = -1;
       if (okToLog)
          lsn = recoveryMgr.setString(buff, offset, val);
       Page p = buff.contents();
@@ -180,6 +254,53 @@ public class Transaction {
       buff.setModified(txnum, lsn);
    }
 
+   /**
+    * Return the specified number of bytes stored at
+    * the specified offset of the specified block.
+    * The method first obtains an SLock on the block,
+    * then it calls the buffer to retrieve the bytes.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param length the number of bytes
+    * @return the bytes stored at that offset
+    */
+   public byte[] getBytes(BlockId blk, int offset, int length) {
+      concurMgr.sLock(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      return buff.contents().readBytes(offset, length);
+   }
+
+   /**
+    * Store bytes at the specified offset 
+    * of the specified block, without a length prefix.
+    * The method first obtains an XLock on the block.
+    * It then reads the bytes to be overwritten,
+    * puts them into update log records (several, if
+    * the bytes would not fit in one log page), and 
+    * writes those records to the log.
+    * Finally, it calls the buffer to store the bytes,
+    * passing in the LSN of the log record and the transaction's id. 
+    * @param blk a reference to the disk block
+    * @param offset a byte offset within that block
+    * @param val the bytes to be stored
+    */
+   public void setBytes(BlockId blk, int offset, byte[] val, boolean okToLog) {
+      concurMgr.xLock(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      long lsn = -1;
+      if (okToLog) {
+         // log a large write in pieces, since a log record must fit in a log page
+         int piece = fm.blockSize() / 2;
+         for (int pos=0; pos<val.length; pos+=piece) {
+            byte[] b = Arrays.copyOfRange(val, pos, Math.min(pos + piece, val.length));
+            lsn = recoveryMgr.setBytes(buff, offset + pos, b);
+         }
+      }
+      Page p = buff.contents();
+      p.writeBytes(offset, val);
+      buff.setModified(txnum, lsn);
+   }
+
    /**
     * Return the number of blocks in the specified file.
     * This method first obtains an SLock on the 
@@ -216,6 +337,14 @@ public class Transaction {
       return bm.available();
    }
    
+   private void deleteTempFiles() {
+      for (String filename : tempfiles) {
+         bm.discardBlocks(filename);
+         fm.delete(filename);
+      }
+      tempfiles.clear();
+   }
+
    private static synchronized int nextTxNumber() {
       nextTxNum++;
       return nextTxNum;
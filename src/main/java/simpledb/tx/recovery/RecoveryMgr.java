@@ -9,6 +9,14 @@ import static simpledb.tx.recovery.LogRecord.*;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * <P>
+ * Since a transaction flushes its buffers before it commits,
+ * recovery only needs the log records of the transactions
+ * that have not finished, and rollback only needs those of
+ * the transaction rolling back. So whenever a transaction finishes,
+ * its log manager truncates the log up to the START record of the oldest
+ * active transaction; a quiescent checkpoint truncates it
+ * up to the checkpoint record.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
@@ -34,8 +42,9 @@ public class RecoveryMgr {
     */
    public void commit() {
       bm.flushAll(txnum);
-      int lsn = CommitRecord.writeToLog(lm, txnum);
+      long lsn = CommitRecord.writeToLog(lm, txnum);
       lm.flush(lsn);
+      lm.finished(txnum, lsn);
    }
 
    /**
@@ -44,19 +53,23 @@ public class RecoveryMgr {
    public void rollback() {
       doRollback();
       bm.flushAll(txnum);
-      int lsn = RollbackRecord.writeToLog(lm, txnum);
+      long lsn = RollbackRecord.writeToLog(lm, txnum);
       lm.flush(lsn);
+      lm.finished(txnum, lsn);
    }
 
    /**
     * Recover uncompleted transactions from the log
     * and then write a quiescent checkpoint record to the log and flush it.
+    * The log before the checkpoint is no longer needed,
+    * and is truncated.
     */
    public void recover() {
       doRecover();
       bm.flushAll(txnum);
-      int lsn = CheckpointRecord.writeToLog(lm);
+      long lsn = CheckpointRecord.writeToLog(lm);
       lm.flush(lsn);
+      lm.truncate(lsn);
    }
 
    /**
@@ -65,7 +78,7 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.contents().getInt(offset);
       BlockId blk = buff.block();
       return SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval);
@@ -77,12 +90,25 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
+   public long setString(Buffer buff, int offset, String newval) {
       String oldval = buff.contents().getString(offset);
       BlockId blk = buff.block();
       return SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval);
    }
 
+   /**
+    * Write a setbytes record to the log and return its lsn.
+    * The record saves the bytes that the new bytes will overwrite.
+    * @param buff the buffer containing the page
+    * @param offset the offset of the bytes in the page
+    * @param newval the bytes to be written
+    */
+   public long setBytes(Buffer buff, int offset, byte[] newval) {
+      byte[] oldval = buff.contents().readBytes(offset, newval.length);
+      BlockId blk = buff.block();
+      return SetBytesRecord.writeToLog(lm, txnum, blk, offset, oldval);
+   }
+
    /**
     * Rollback the transaction, by iterating
     * through the log records until it finds 
@@ -0,0 +1,80 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+public class SetBytesRecord implements LogRecord {
+   private int txnum, offset;
+   private byte[] val;
+   private BlockId blk;
+
+   /**
+    * Create a new setbytes log record.
+    * @param bb the bytebuffer containing the log values
+    */
+   public SetBytesRecord(Page p) {
+      int tpos = Integer.BYTES;
+      txnum = p.getInt(tpos);
+      int fpos = tpos + Integer.BYTES;
+      String filename = p.getString(fpos);
+      int bpos = fpos + Page.maxLength(filename.length());
+      int blknum = p.getInt(bpos);
+      blk = new BlockId(filename, blknum);
+      int opos = bpos + Integer.BYTES;
+      offset = p.getInt(opos);
+      int vpos = opos + Integer.BYTES;
+      val = p.getBytes(vpos);
+   }
+
+   public int op() {
+      return SETBYTES;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public String toString() {
+      return "<SETBYTES " + txnum + " " + blk + " " + offset + " " + val.length + ">";
+   }
+
+   /**
+    * Replace the specified bytes with the bytes saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setBytes to restore the saved bytes,
+    * and unpins the buffer.
+    * @see LogRecord#undo(int)
+    */
+   public void undo(Transaction tx) {
+      tx.pin(blk);
+      tx.setBytes(blk, offset, val, false); // don't log the undo!
+      tx.unpin(blk);
+   }
+
+   /**
+    * A static method to write a setBytes record to the log.
+    * This log record contains the SETBYTES operator,
+    * followed by the transaction id, the filename, number,
+    * and offset of the modified block, and the previous
+    * bytes at that offset.
+    * @return the LSN of the last log value
+    */
+   public static long writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, byte[] val) {
+      int tpos = Integer.BYTES;
+      int fpos = tpos + Integer.BYTES;
+      int bpos = fpos + Page.maxLength(blk.fileName().length());
+      int opos = bpos + Integer.BYTES;
+      int vpos = opos + Integer.BYTES;
+      int reclen = vpos + Integer.BYTES + val.length;
+      byte[] rec = new byte[reclen];
+      Page p = new Page(rec);
+      p.setInt(0, SETBYTES);
+      p.setInt(tpos, txnum);
+      p.setString(fpos, blk.fileName());
+      p.setInt(bpos, blk.number());
+      p.setInt(opos, offset);
+      p.setBytes(vpos, val);
+      return lm.append(rec);
+   }
+}
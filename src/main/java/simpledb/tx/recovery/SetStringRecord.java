@@ -60,7 +60,7 @@ public class SetStringRecord implements LogRecord {
     * integer value at that offset.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, String val) {
+   public static long writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, String val) {
       int tpos = Integer.BYTES;
       int fpos = tpos + Integer.BYTES;
       int bpos = fpos + Page.maxLength(blk.fileName().length());
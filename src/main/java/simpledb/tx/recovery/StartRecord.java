@@ -38,13 +38,14 @@ public class StartRecord implements LogRecord {
     * A static method to write a start record to the log.
     * This log record contains the START operator,
     * followed by the transaction id.
+    * The log manager records the transaction as active.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
+   public static long writeToLog(LogMgr lm, int txnum) {
       byte[] rec = new byte[2*Integer.BYTES];
       Page p = new Page(rec);
       p.setInt(0, START);
       p.setInt(Integer.BYTES, txnum);
-      return lm.append(rec);
+      return lm.appendStart(txnum, rec);
    }
 }